@@ -0,0 +1,79 @@
+package com.beacodeart.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * ConcurrencyBenchmark
+ *
+ * throughput of the embedding api when many scripts run at once
+ * a batch of independent scripts is run through Program.runAll on pools of 1, 2, 4 ... threads up to
+ * the number of cores, then on Program.newExecutor (virtual threads where the jvm has them)
+ * every run has its own interpreter and globals, so scripts/s should grow close to linearly with
+ * the thread count, the speedup column is relative to the single thread pool
+ *
+ * compile and run from the root directory:
+ *   javac -d out $(find com bench -name "*.java")
+ *   java -cp out com.beacodeart.lox.ConcurrencyBenchmark [scripts per batch] [measured batches]
+ */
+public class ConcurrencyBenchmark {
+	public static void main(String[] args) throws InterruptedException {
+		int scripts = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int batches = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		//a handful of different programs, each compiled once and shared by every thread running it
+		List<Program> programs = new ArrayList<>(scripts);
+		Program[] kinds = {
+			Program.compile(LoxBenchmark.arithmetic(20, 20)),
+			Program.compile(LoxBenchmark.nestedBlocks(20)),
+			Program.compile(LoxBenchmark.strings(20)),
+			Program.compile(LoxBenchmark.globals(50))
+		};
+		for (int i = 0; i < scripts; i++){
+			programs.add(kinds[i % kinds.length]);
+		}
+
+		int cores = Runtime.getRuntime().availableProcessors();
+		System.out.printf("%-16s %14s %10s%n", "threads", "scripts/s", "speedup");
+
+		double single = 0;
+		for (int threads = 1; threads <= cores; threads *= 2){
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			double throughput = measure(programs, executor, batches);
+			executor.shutdown();
+
+			if (threads == 1) single = throughput;
+			System.out.printf("%-16d %14.1f %10.2f%n", threads, throughput, throughput / single);
+		}
+
+		ExecutorService executor = Program.newExecutor();
+		double throughput = measure(programs, executor, batches);
+		executor.shutdown();
+		System.out.printf("%-16s %14.1f %10.2f%n", "newExecutor", throughput, throughput / single);
+	}
+
+	//scripts per second over the measured batches, after the same number of warmup batches
+	private static double measure(List<Program> programs, ExecutorService executor, int batches)
+			throws InterruptedException {
+		for (int i = 0; i < batches; i++){
+			check(Program.runAll(programs, executor));
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < batches; i++){
+			check(Program.runAll(programs, executor));
+		}
+		long elapsed = System.nanoTime() - start;
+
+		return (double)programs.size() * batches * 1e9 / elapsed;
+	}
+
+	private static void check(List<Program.Result> results){
+		for (Program.Result result : results){
+			if (!result.succeeded()) throw new IllegalStateException(result.error);
+		}
+		LoxBenchmark.sink = results;
+	}
+}
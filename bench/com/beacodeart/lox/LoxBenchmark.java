@@ -0,0 +1,275 @@
+package com.beacodeart.lox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * LoxBenchmark
+ *
+ * micro benchmarks for each phase on its own (scan, parse, interpret) and for Lox.run end to end
+ * lives in the lox package, in its own source tree, so it can reach the package private phases
+ * without them being part of the interpreter build
+ *
+ * every benchmark runs against each generated input, warms up, then measures a number of timed
+ * iterations and reports throughput (ops/s) and bytes allocated per op, which is read from the
+ * thread allocation counter the same way a gc profiler would
+ *
+ * compile and run from the root directory:
+ *   javac -d out $(find com bench -name "*.java")
+ *   java -cp out com.beacodeart.lox.LoxBenchmark [warmup iterations] [measured iterations] [filter]
+ */
+public class LoxBenchmark {
+	//length of one timed iteration
+	private static final long ITERATION_NANOS = 1_000_000_000L;
+
+	//results go here so the jit can't throw the work away
+	static volatile Object sink;
+
+	private interface Task {
+		Object run();
+	}
+
+	public static void main(String[] args){
+		int warmup = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		int measured = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		String filter = args.length > 2 ? args[2] : "";
+
+		//print statements would swamp the results
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+		out.printf("%-32s %14s %14s%n", "benchmark", "ops/s", "B/op");
+		for (Map.Entry<String, String> input : inputs().entrySet()){
+			for (Map.Entry<String, Task> benchmark : benchmarks(input.getValue()).entrySet()){
+				String name = benchmark.getKey() + ":" + input.getKey();
+				if (!name.contains(filter)) continue;
+
+				double[] result = measure(benchmark.getValue(), warmup, measured);
+				out.printf("%-32s %14.1f %14.0f%n", name, result[0], result[1]);
+			}
+		}
+
+		System.setOut(out);
+	}
+
+	//the phases, each one gets the output of the previous phase prepared up front
+	private static Map<String, Task> benchmarks(String source){
+		List<Token> tokens = new Scanner(source).scanTokens();
+		TokenBuffer compactTokens = new Scanner(source).scanCompact();
+		//off heap like a mapped file, without depending on the page cache
+		byte[] encoded = source.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer bytes = ByteBuffer.allocateDirect(encoded.length).put(encoded);
+		bytes.flip();
+		List<Stmt> statements = new Parser(tokens).parse();
+		List<Stmt> resolved = new Optimizer().optimize(statements);
+		new Resolver().resolve(resolved);
+		Interpreter interpreter = new Interpreter();
+		ClosureInterpreter closureInterpreter = new ClosureInterpreter(new OutputSink.Console(System.out));
+		ClosureInterpreter.Execution[] translated = closureInterpreter.translate(resolved);
+		SpecializingInterpreter specializingInterpreter = new SpecializingInterpreter(new OutputSink.Console(System.out));
+		StackInterpreter stackInterpreter = new StackInterpreter(new OutputSink.Console(System.out));
+		FlatInterpreter flatInterpreter = new FlatInterpreter(new OutputSink.Console(System.out));
+		FlatTree flat = FlatTree.encode(resolved);
+
+		Map<String, Task> benchmarks = new LinkedHashMap<>();
+		benchmarks.put("scan", () -> new Scanner(source).scanTokens());
+		benchmarks.put("scan-compact", () -> new Scanner(source).scanCompact());
+		benchmarks.put("scan-bytes", () -> new ByteScanner(bytes).scanCompact());
+		benchmarks.put("parse", () -> new Parser(tokens).parse());
+		benchmarks.put("parse-compact", () -> new Parser(compactTokens).parse());
+		benchmarks.put("parse-stack", () -> new Parser(compactTokens).useExplicitStacks().parse());
+		benchmarks.put("interpret", () -> {
+			interpreter.interpret(resolved);
+			return interpreter;
+		});
+		//the same statements every time, after the first op the nodes have already specialized
+		benchmarks.put("interpret-specialize", () -> {
+			specializingInterpreter.interpret(resolved);
+			return specializingInterpreter;
+		});
+		//straight from the parser, --stack neither folds nor resolves
+		benchmarks.put("interpret-stack", () -> {
+			stackInterpreter.interpret(statements);
+			return stackInterpreter;
+		});
+		//translating is part of every closure run, the second one shows what running alone costs
+		benchmarks.put("interpret-closure", () -> {
+			closureInterpreter.interpret(resolved);
+			return closureInterpreter;
+		});
+		benchmarks.put("execute-closure", () -> {
+			closureInterpreter.run(translated);
+			return closureInterpreter;
+		});
+		//encoding is part of every --flat run, like translating for the closure interpreter
+		benchmarks.put("encode-flat", () -> FlatTree.encode(resolved));
+		benchmarks.put("interpret-flat", () -> {
+			flatInterpreter.interpret(flat);
+			return flatInterpreter;
+		});
+		benchmarks.put("run", () -> {
+			Lox.run(source);
+			return source;
+		});
+		return benchmarks;
+	}
+
+	//representative sources, generated so their size is easy to change
+	static Map<String, String> inputs(){
+		Map<String, String> inputs = new LinkedHashMap<>();
+		inputs.put("arithmetic", arithmetic(200, 50));
+		inputs.put("expressions", expressions(500));
+		inputs.put("nested", nestedBlocks(200));
+		inputs.put("strings", strings(500));
+		//four times the concatenations, linear building takes about four times as long, not sixteen
+		inputs.put("strings-long", strings(2000));
+		inputs.put("globals", globals(2000));
+		inputs.put("calls", calls(1000));
+		inputs.put("identifiers", identifiers(1000));
+		inputs.put("numbers", numbers(5000));
+		return inputs;
+	}
+
+	//long chains mixing every arithmetic operator, with a variable so folding can't remove them
+	static String arithmetic(int statements, int terms){
+		StringBuilder source = new StringBuilder("var x = 3;\n");
+		String[] operators = {" + ", " - ", " * ", " / "};
+		for (int i = 0; i < statements; i++){
+			source.append("var r").append(i).append(" = x");
+			for (int j = 1; j < terms; j++){
+				source.append(operators[j % operators.length]).append(j % 9 + 1);
+			}
+			source.append(";\n");
+		}
+		return source.toString();
+	}
+
+	//every precedence level in each statement, comparisons of sums of products of negated groupings
+	//and calls, so the parser climbs and descends on almost every token
+	static String expressions(int statements){
+		StringBuilder source = new StringBuilder("var x = 3;\nvar y = 4;\n");
+		for (int i = 0; i < statements; i++){
+			source.append("var e").append(i).append(" = !(x * -y + ").append(i % 7 + 1)
+					.append(" / (x - y) >= max(x, y) * 2 - -x) == x + y * ").append(i % 5 + 1)
+					.append(" < abs(-y) != (y <= x);\n");
+		}
+		return source.toString();
+	}
+
+	//blocks inside blocks, each declaring a local and reading the ones around it
+	static String nestedBlocks(int depth){
+		StringBuilder source = new StringBuilder("var total = 0;\n");
+		for (int i = 0; i < depth; i++){
+			source.append("{ var v").append(i).append(" = ").append(i).append(";\n");
+			source.append("total = total + v").append(i);
+			if (i > 0) source.append(" + v").append(i - 1);
+			source.append(";\n");
+		}
+		for (int i = 0; i < depth; i++){
+			source.append("}\n");
+		}
+		source.append("print total;\n");
+		return source.toString();
+	}
+
+	//builds a string up one piece at a time
+	static String strings(int statements){
+		StringBuilder source = new StringBuilder("var s = \"\";\n");
+		for (int i = 0; i < statements; i++){
+			source.append("s = s + \"chunk").append(i).append(" \";\n");
+		}
+		source.append("print s;\n");
+		return source.toString();
+	}
+
+	//lots of globals, defined then read back from inside a block
+	static String globals(int count){
+		StringBuilder source = new StringBuilder();
+		for (int i = 0; i < count; i++){
+			source.append("var g").append(i).append(" = ").append(i).append(";\n");
+		}
+		source.append("{\n");
+		for (int i = 1; i < count; i++){
+			source.append("g").append(i).append(" = g").append(i).append(" + g").append(i - 1).append(";\n");
+		}
+		source.append("}\n");
+		return source.toString();
+	}
+
+	//native calls with zero, one and two arguments, the script times itself with clock()
+	static String calls(int statements){
+		StringBuilder source = new StringBuilder("var start = clock();\nvar x = 2;\n");
+		for (int i = 0; i < statements; i++){
+			source.append("x = sqrt(x * ").append(i % 9 + 1).append(") + max(abs(x - ").append(i)
+					.append("), pow(x, 0.5));\n");
+		}
+		source.append("var elapsed = clock() - start;\n");
+		return source.toString();
+	}
+
+	//mostly keywords and names, for the scanner's identifier path
+	static String identifiers(int count){
+		StringBuilder source = new StringBuilder();
+		for (int i = 0; i < count; i++){
+			source.append("var flag_").append(i).append(" = true;\n");
+			source.append("var other_").append(i).append(" = flag_").append(i).append(" == false;\n");
+			source.append("var empty_").append(i).append(" = nil;\n");
+		}
+		return source.toString();
+	}
+
+	//integer and short decimal literals, for the scanner's number path
+	static String numbers(int count){
+		StringBuilder source = new StringBuilder("var n = 0;\n");
+		for (int i = 0; i < count; i++){
+			source.append("n = ").append(i).append(" + ").append(i % 100).append(".").append(i % 7)
+					.append(" + 1234567.25;\n");
+		}
+		return source.toString();
+	}
+
+	//returns ops per second and bytes allocated per op, averaged over the measured iterations
+	private static double[] measure(Task task, int warmup, int measured){
+		for (int i = 0; i < warmup; i++){
+			iteration(task);
+		}
+
+		long ops = 0;
+		long nanos = 0;
+		long bytes = 0;
+		for (int i = 0; i < measured; i++){
+			long[] result = iteration(task);
+			ops += result[0];
+			nanos += result[1];
+			bytes += result[2];
+		}
+
+		return new double[] { ops * 1e9 / nanos, (double)bytes / ops };
+	}
+
+	//runs the task repeatedly for one iteration's worth of time
+	private static long[] iteration(Task task){
+		long ops = 0;
+		long allocatedBefore = allocatedBytes();
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			sink = task.run();
+			ops++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < ITERATION_NANOS);
+
+		return new long[] { ops, elapsed, allocatedBytes() - allocatedBefore };
+	}
+
+	private static long allocatedBytes(){
+		return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean())
+				.getCurrentThreadAllocatedBytes();
+	}
+}
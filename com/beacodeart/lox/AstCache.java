@@ -0,0 +1,442 @@
+package com.beacodeart.lox;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * AstCache
+ *
+ * keeps the scanned and parsed form of each script on disk so running the same file again
+ * skips the scanner and parser. entries are keyed by a sha-256 of the source text, so an edited
+ * file just misses and gets a new entry
+ *
+ * an entry is a small header (magic, format version, source length) followed by the tree written
+ * out node by node in prefix order. lexemes and string literals go in a table and are written once
+ * the tokens aren't kept, only --tokens wants them and scanning again is cheap next to parsing
+ * anything unreadable, from an older format or cut short, counts as a miss and gets rewritten
+ *
+ * the cache is only ever an optimisation, it never fails a run. an io error on either side is a
+ * miss, and so is a tree too deep for the recursive writer or reader, which is just not cached
+ */
+class AstCache {
+	private static final int MAGIC = 0x4c4f5843; // LOXC
+	//bump whenever the layout below, the node set or TokenType's order changes
+	private static final int VERSION = 4;
+
+	//node tags
+	private static final int BLOCK = 0;
+	private static final int EXPRESSION = 1;
+	private static final int PRINT = 2;
+	private static final int VAR = 3;
+	private static final int ASSIGN = 4;
+	private static final int BINARY = 5;
+	private static final int GROUPING = 6;
+	private static final int LITERAL = 7;
+	private static final int UNARY = 8;
+	private static final int VARIABLE = 9;
+	//absent initializer
+	private static final int NONE = 10;
+	private static final int CALL = 11;
+
+	//literal tags
+	private static final int NIL = 0;
+	private static final int FALSE = 1;
+	private static final int TRUE = 2;
+	private static final int NUMBER = 3;
+	private static final int STRING = 4;
+
+	private static final TokenType[] TYPES = TokenType.values();
+
+	private final Path directory;
+
+	AstCache(Path directory){
+		this.directory = directory;
+	}
+
+	//the statements parsing the source would have given, null on a miss
+	List<Stmt> load(String source){
+		Path file = file(source);
+		if (!Files.isRegularFile(file)) return null;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != source.length()){
+				return null;
+			}
+			return new Reader(in).read();
+		} catch (IOException | RuntimeException | StackOverflowError error){
+			//stale or damaged, the next store replaces it
+			return null;
+		}
+	}
+
+	//only called for sources that parsed without errors
+	void store(String source, List<Stmt> statements){
+		Path file = file(source);
+		Path temporary = null;
+		try {
+			Files.createDirectories(directory);
+			//written to the side and moved into place so a reader never sees half an entry
+			temporary = Files.createTempFile(directory, "entry", ".tmp");
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(source.length());
+				new Writer(out).write(statements);
+			}
+			try {
+				Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException error){
+				Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException | RuntimeException | StackOverflowError error){
+			//nothing cached this time
+		} finally {
+			//still there if anything went wrong before the move
+			if (temporary != null) deleteQuietly(temporary);
+		}
+	}
+
+	private static void deleteQuietly(Path file){
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException error){
+			//left for whoever clears the cache directory
+		}
+	}
+
+	private Path file(String source){
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+			StringBuilder name = new StringBuilder(hash.length * 2 + 4);
+			for (byte b : hash){
+				name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return directory.resolve(name.append(".ast").toString());
+		} catch (NoSuchAlgorithmException error){
+			//every jvm has to provide sha-256
+			throw new IllegalStateException(error);
+		}
+	}
+
+	//unsigned LEB128, most numbers in an entry are small
+	private static void writeVarint(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7f) != 0){
+			out.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarint(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7){
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Malformed varint.");
+	}
+
+	//writes the tree, the visitors can't throw so io errors are carried out unchecked
+	private static class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+		private final DataOutputStream out;
+		private final Map<String, Integer> strings = new HashMap<>();
+
+		Writer(DataOutputStream out){
+			this.out = out;
+		}
+
+		void write(List<Stmt> statements) throws IOException {
+			try {
+				statements(statements);
+			} catch (UncheckedIOException error){
+				throw error.getCause();
+			}
+		}
+
+		private void statements(List<Stmt> statements){
+			varint(statements.size());
+			for (Stmt statement : statements){
+				statement.accept(this);
+			}
+		}
+
+		private void expression(Expr expr){
+			expr.accept(this);
+		}
+
+		@Override
+		public Void visitBlockStmt(Stmt.Block stmt){
+			tag(BLOCK);
+			statements(stmt.statements);
+			return null;
+		}
+
+		@Override
+		public Void visitExpressionStmt(Stmt.Expression stmt){
+			tag(EXPRESSION);
+			varint(stmt.line);
+			expression(stmt.expression);
+			return null;
+		}
+
+		@Override
+		public Void visitPrintStmt(Stmt.Print stmt){
+			tag(PRINT);
+			varint(stmt.line);
+			expression(stmt.expression);
+			return null;
+		}
+
+		@Override
+		public Void visitVarStmt(Stmt.Var stmt){
+			tag(VAR);
+			token(stmt.name);
+			if (stmt.initializer == null){
+				tag(NONE);
+			} else {
+				expression(stmt.initializer);
+			}
+			return null;
+		}
+
+		@Override
+		public Void visitAssignExpr(Expr.Assign expr){
+			tag(ASSIGN);
+			token(expr.name);
+			expression(expr.value);
+			return null;
+		}
+
+		@Override
+		public Void visitBinaryExpr(Expr.Binary expr){
+			tag(BINARY);
+			expression(expr.left);
+			token(expr.operator);
+			expression(expr.right);
+			return null;
+		}
+
+		@Override
+		public Void visitCallExpr(Expr.Call expr){
+			tag(CALL);
+			expression(expr.callee);
+			token(expr.paren);
+			varint(expr.arguments.size());
+			for (Expr argument : expr.arguments){
+				expression(argument);
+			}
+			return null;
+		}
+
+		@Override
+		public Void visitGroupingExpr(Expr.Grouping expr){
+			tag(GROUPING);
+			expression(expr.expression);
+			return null;
+		}
+
+		@Override
+		public Void visitLiteralExpr(Expr.Literal expr){
+			tag(LITERAL);
+			Object value = expr.value;
+			try {
+				if (value == null){
+					out.writeByte(NIL);
+				} else if (value instanceof Boolean){
+					out.writeByte((boolean)value ? TRUE : FALSE);
+				} else if (value instanceof Double){
+					out.writeByte(NUMBER);
+					out.writeDouble((double)value);
+				} else {
+					out.writeByte(STRING);
+					string((String)value);
+				}
+			} catch (IOException error){
+				throw new UncheckedIOException(error);
+			}
+			return null;
+		}
+
+		@Override
+		public Void visitUnaryExpr(Expr.Unary expr){
+			tag(UNARY);
+			token(expr.operator);
+			expression(expr.right);
+			return null;
+		}
+
+		@Override
+		public Void visitVariableExpr(Expr.Variable expr){
+			tag(VARIABLE);
+			token(expr.name);
+			return null;
+		}
+
+		//tokens in the tree are names and operators, their literal is always null
+		private void token(Token token){
+			tag(token.type.ordinal());
+			string(token.lexeme);
+			varint(token.line);
+		}
+
+		//a string is written in full the first time and by its index in the table after that
+		private void string(String value){
+			Integer index = strings.get(value);
+			if (index != null){
+				varint(index + 1);
+				return;
+			}
+
+			strings.put(value, strings.size());
+			varint(0);
+			try {
+				//writeUTF is limited to 64K, long string literals are written as chars
+				varint(value.length());
+				out.writeChars(value);
+			} catch (IOException error){
+				throw new UncheckedIOException(error);
+			}
+		}
+
+		private void tag(int tag){
+			try {
+				out.writeByte(tag);
+			} catch (IOException error){
+				throw new UncheckedIOException(error);
+			}
+		}
+
+		private void varint(int value){
+			try {
+				writeVarint(out, value);
+			} catch (IOException error){
+				throw new UncheckedIOException(error);
+			}
+		}
+	}
+
+	//reads an entry back in the order Writer wrote it
+	private static class Reader {
+		private final DataInputStream in;
+		private final List<String> strings = new ArrayList<>();
+
+		Reader(DataInputStream in){
+			this.in = in;
+		}
+
+		List<Stmt> read() throws IOException {
+			List<Stmt> statements = statements();
+			if (in.read() != -1) throw new IOException("Trailing data.");
+			return statements;
+		}
+
+		private List<Stmt> statements() throws IOException {
+			int count = readVarint(in);
+			List<Stmt> statements = new ArrayList<>(count);
+			for (int i = 0; i < count; i++){
+				statements.add(statement());
+			}
+			return statements;
+		}
+
+		private Stmt statement() throws IOException {
+			int tag = in.readUnsignedByte();
+			switch (tag) {
+				case BLOCK: return new Stmt.Block(statements());
+				case EXPRESSION: {
+					int line = readVarint(in);
+					return new Stmt.Expression(expression(), line);
+				}
+				case PRINT: {
+					int line = readVarint(in);
+					return new Stmt.Print(expression(), line);
+				}
+				case VAR: {
+					Token name = token();
+					Expr initializer = expression();
+					return new Stmt.Var(name, initializer);
+				}
+				default: throw new IOException("Unknown statement tag " + tag + ".");
+			}
+		}
+
+		//null for the NONE tag
+		private Expr expression() throws IOException {
+			int tag = in.readUnsignedByte();
+			switch (tag) {
+				case NONE: return null;
+				case ASSIGN: {
+					Token name = token();
+					return new Expr.Assign(name, expression());
+				}
+				case BINARY: {
+					Expr left = expression();
+					Token operator = token();
+					return new Expr.Binary(left, operator, expression());
+				}
+				case CALL: {
+					Expr callee = expression();
+					Token paren = token();
+					int count = readVarint(in);
+					List<Expr> arguments = new ArrayList<>(count);
+					for (int i = 0; i < count; i++){
+						arguments.add(expression());
+					}
+					return new Expr.Call(callee, paren, arguments);
+				}
+				case GROUPING: return new Expr.Grouping(expression());
+				case LITERAL: return new Expr.Literal(literal());
+				case UNARY: {
+					Token operator = token();
+					return new Expr.Unary(operator, expression());
+				}
+				case VARIABLE: return new Expr.Variable(token());
+				default: throw new IOException("Unknown expression tag " + tag + ".");
+			}
+		}
+
+		private Object literal() throws IOException {
+			int tag = in.readUnsignedByte();
+			switch (tag) {
+				case NIL: return null;
+				case FALSE: return false;
+				case TRUE: return true;
+				case NUMBER: return in.readDouble();
+				case STRING: return string();
+				default: throw new IOException("Unknown literal tag " + tag + ".");
+			}
+		}
+
+		private Token token() throws IOException {
+			TokenType type = TYPES[in.readUnsignedByte()];
+			String lexeme = string();
+			int line = readVarint(in);
+			return new Token(type, lexeme, null, line);
+		}
+
+		private String string() throws IOException {
+			int index = readVarint(in);
+			if (index > 0) return strings.get(index - 1);
+
+			int length = readVarint(in);
+			char[] chars = new char[length];
+			for (int i = 0; i < length; i++){
+				chars[i] = in.readChar();
+			}
+			String value = new String(chars);
+			strings.add(value);
+			return value;
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package com.beacodeart.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * BatchRunner
+ *
+ * runs a whole list of scripts inside one jvm, selected with --batch
+ * each file is compiled and run as its own Program on a fork join pool, so every script has
+ * its own interpreter, globals and output, and later scripts get the jit's warm code for free
+ *
+ * everything a script prints and any error it reports is captured, then written out per file in
+ * the order the files were given, followed by a summary of each file's exit status and time
+ * statuses mean the same as running the file on its own, 65 syntax error and 70 runtime error
+ */
+class BatchRunner {
+	//could not read the file
+	static final int IO_ERROR = 74;
+	//the script died with something other than a lox error, counted as a runtime error
+	static final int CRASHED = 70;
+
+	private final ForkJoinPool pool;
+
+	BatchRunner(int parallelism){
+		this.pool = new ForkJoinPool(parallelism);
+	}
+
+	//what running one file produced
+	static class Outcome {
+		final Path file;
+		final int status;
+		final String output;
+		//null if the script ran cleanly
+		final String error;
+		final long nanos;
+
+		Outcome(Path file, int status, String output, String error, long nanos){
+			this.file = file;
+			this.status = status;
+			this.output = output;
+			this.error = error;
+			this.nanos = nanos;
+		}
+	}
+
+	//directories are searched for .lox files, in name order so runs are repeatable
+	static List<Path> collect(List<String> paths) throws IOException {
+		List<Path> files = new ArrayList<>();
+		for (String path : paths){
+			Path file = Paths.get(path);
+			if (!Files.isDirectory(file)){
+				files.add(file);
+				continue;
+			}
+
+			try (Stream<Path> found = Files.walk(file)) {
+				files.addAll(found
+						.filter(candidate -> Files.isRegularFile(candidate) && candidate.toString().endsWith(".lox"))
+						.sorted()
+						.collect(Collectors.toList()));
+			}
+		}
+		return files;
+	}
+
+	//outcomes come back in the same order as the files
+	List<Outcome> run(List<Path> files) throws InterruptedException {
+		List<Callable<Outcome>> tasks = new ArrayList<>(files.size());
+		for (Path file : files){
+			tasks.add(() -> run(file));
+		}
+
+		List<Outcome> outcomes = new ArrayList<>(files.size());
+		try {
+			for (Future<Outcome> future : pool.invokeAll(tasks)){
+				outcomes.add(future.get());
+			}
+		} catch (ExecutionException error){
+			//run(Path) turns everything a script throws into an outcome, this is a bug in the runner
+			throw new IllegalStateException("Script run failed.", error.getCause());
+		} finally {
+			pool.shutdown();
+		}
+		return outcomes;
+	}
+
+	private Outcome run(Path file){
+		long start = System.nanoTime();
+
+		String source;
+		try {
+			source = new String(Files.readAllBytes(file), Lox.SOURCE_CHARSET);
+		} catch (IOException error){
+			return new Outcome(file, IO_ERROR, "", Lox.readErrorMessage(file, error),
+					System.nanoTime() - start);
+		}
+
+		//Program already reports a script nested too deeply to compile or run as an error, anything
+		//else unexpected fails this file only, the rest of the batch still runs and gets reported
+		try {
+			Program program = Program.compile(source);
+			Program.Result result = program.run();
+
+			int status = 0;
+			if (program.hasErrors()){
+				status = 65;
+			} else if (!result.succeeded()){
+				status = 70;
+			}
+			return new Outcome(file, status, result.output, result.error, System.nanoTime() - start);
+		} catch (Throwable error){
+			return new Outcome(file, CRASHED, "", "Script failed: " + error + ".", System.nanoTime() - start);
+		}
+	}
+
+	//each file's captured output and errors, then the summary, returns the worst status to exit with
+	static int report(List<Outcome> outcomes, PrintStream out, PrintStream err){
+		int worst = 0;
+		for (Outcome outcome : outcomes){
+			out.println("== " + outcome.file);
+			out.print(outcome.output);
+			if (outcome.error != null){
+				out.flush();
+				err.println(outcome.error);
+				err.flush();
+			}
+			worst = Math.max(worst, outcome.status);
+		}
+
+		out.println();
+		out.printf("%-6s %10s  %s%n", "status", "ms", "file");
+		long total = 0;
+		for (Outcome outcome : outcomes){
+			out.printf("%-6d %10.2f  %s%n", outcome.status, outcome.nanos / 1e6, outcome.file);
+			total += outcome.nanos;
+		}
+		out.printf("%d files, %.2f ms of script time%n", outcomes.size(), total / 1e6);
+		out.flush();
+		return worst;
+	}
+}
@@ -0,0 +1,310 @@
+package com.beacodeart.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static com.beacodeart.lox.TokenType.*;
+
+/*
+ * ByteScanner
+ *
+ * Scanner.scanCompact working straight on the utf-8 bytes of a file mapped into memory
+ * nothing is read onto the heap up front, scanning starts as soon as the file is mapped and the
+ * os pages the rest in as the scanner gets to it. the bytes are copied out a small window at a
+ * time, like Scanner does with a Reader, reading a byte array is much quicker than asking the
+ * mapping for every byte on its own
+ *
+ * everything lox cares about outside a string literal is ascii, identifiers included, so the
+ * structure is scanned a byte at a time and the TokenBuffer keeps byte offsets. string literals
+ * are the only thing ever decoded, and only once the parser asks for their value
+ * a character outside a string that isn't ascii is skipped whole and reported the same way the
+ * character scanner reports it
+ */
+class ByteScanner {
+	//size of the window copied out of the mapping at a time
+	private static final int BUFFER_SIZE = 8192;
+
+	private final ByteBuffer bytes;
+	//read through this view so the caller's position is left alone
+	private final ByteBuffer input;
+	private byte[] buffer = new byte[BUFFER_SIZE];
+	//number of valid bytes in buffer, and the offset into bytes of buffer[0]
+	private int limit = 0;
+	private int base = 0;
+	//where syntax errors go
+	private final ErrorReporter reporter;
+	private TokenBuffer compact;
+	//pointers, into the window
+	private int start = 0;
+	private int current = 0;
+	//tracking
+	private int line = 1;
+
+	ByteScanner(ByteBuffer bytes){
+		this(bytes, Lox.REPORTER);
+	}
+
+	ByteScanner(ByteBuffer bytes, ErrorReporter reporter){
+		this.bytes = bytes;
+		this.input = bytes.duplicate();
+		input.position(0);
+		this.reporter = reporter;
+	}
+
+	//the whole file, read only. one mapping can't be bigger than 2GB, nor can one String
+	static MappedByteBuffer map(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) throw new IOException("File too large to map: " + path);
+			//the mapping stays valid once the channel is closed
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+	}
+
+	//same tokens as Scanner.scanCompact gives for the decoded text
+	TokenBuffer scanCompact(){
+		compact = new TokenBuffer(bytes);
+		while (!isAtEnd()) {
+			start = current;
+			scanToken();
+		}
+		compact.add(EOF, base + current, 0, line);
+		return compact;
+	}
+
+	//the same switch as Scanner.scanToken, a byte at a time
+	private void scanToken(){
+		byte c = advance();
+		switch (c) {
+			case '(': addToken(LEFT_PAREN); break;
+			case ')': addToken(RIGHT_PAREN); break;
+			case '{': addToken(LEFT_BRACE); break;
+			case '}': addToken(RIGHT_BRACE); break;
+			case ',': addToken(COMMA); break;
+			case '.': addToken(DOT); break;
+			case '-': addToken(MINUS); break;
+			case '+': addToken(PLUS); break;
+			case ';': addToken(SEMICOLON); break;
+			case '*': addToken(STAR); break;
+
+			case '!': addToken(match('=') ? BANG_EQUAL : BANG); break;
+			case '=': addToken(match('=') ? EQUAL_EQUAL : EQUAL); break;
+			case '<': addToken(match('=') ? LESS_EQUAL : LESS); break;
+			case '>': addToken(match('=') ? GREATER_EQUAL : GREATER); break;
+			case '/':
+				if (match('/')){
+					//a comment can hold anything, its bytes are skipped without being decoded
+					while (peek() != '\n' && !isAtEnd()) advance();
+				} else {
+					addToken(SLASH);
+				}
+				break;
+
+			case ' ':
+			case '\r':
+			case '\t':
+				break;
+			case '\n':
+				line++;
+				break;
+
+			case '"': string(); break;
+
+			default:
+				if (isDigit(c)){
+					number();
+				} else if (isAlpha(c)){
+					identifier();
+				} else if (c < 0){
+					nonAscii(c);
+				} else {
+					reporter.error(line, "unexpected character");
+				}
+				break;
+		}
+	}
+
+	//keywords are told apart from names straight off the bytes, names are interned later
+	private void identifier(){
+		while (isAlphaNumeric(peek())) advance();
+		addToken(keyword());
+	}
+
+	private TokenType keyword(){
+		switch (buffer[start]) {
+			case 'a': return checkKeyword(1, "nd", AND);
+			case 'c': return checkKeyword(1, "lass", CLASS);
+			case 'e': return checkKeyword(1, "lse", ELSE);
+			case 'f':
+				if (current - start > 1) {
+					switch (buffer[start + 1]) {
+						case 'a': return checkKeyword(2, "lse", FALSE);
+						case 'o': return checkKeyword(2, "r", FOR);
+						case 'u': return checkKeyword(2, "n", FUN);
+					}
+				}
+				break;
+			case 'i': return checkKeyword(1, "f", IF);
+			case 'n': return checkKeyword(1, "il", NIL);
+			case 'o': return checkKeyword(1, "r", OR);
+			case 'p': return checkKeyword(1, "rint", PRINT);
+			case 'r': return checkKeyword(1, "eturn", RETURN);
+			case 's': return checkKeyword(1, "uper", SUPER);
+			case 't':
+				if (current - start > 1) {
+					switch (buffer[start + 1]) {
+						case 'h': return checkKeyword(2, "is", THIS);
+						case 'r': return checkKeyword(2, "ue", TRUE);
+					}
+				}
+				break;
+			case 'v': return checkKeyword(1, "ar", VAR);
+			case 'w': return checkKeyword(1, "hile", WHILE);
+		}
+
+		return IDENTIFIER;
+	}
+
+	private TokenType checkKeyword(int offset, String rest, TokenType type){
+		if (current - start != offset + rest.length()) return IDENTIFIER;
+
+		for (int i = 0; i < rest.length(); i++){
+			if (buffer[start + offset + i] != rest.charAt(i)) return IDENTIFIER;
+		}
+
+		return type;
+	}
+
+	//the value is worked out later by the TokenBuffer, see parseNumber
+	private void number(){
+		while (isDigit(peek())) advance();
+
+		if (peek() == '.' && isDigit(peekNext())){
+			advance();
+
+			while (isDigit(peek())) advance();
+		}
+
+		addToken(NUMBER);
+	}
+
+	//the closing quote is ascii and can't appear inside a multi byte character, so finding it needs
+	//no decoding either
+	private void string(){
+		while (peek() != '"' && !isAtEnd()){
+			if (peek() == '\n') line++;
+			advance();
+		}
+
+		if (isAtEnd()) {
+			reporter.error(line, "unterminated string");
+			return;
+		}
+
+		advance();
+		addToken(STRING);
+	}
+
+	//a character the lead byte says is two to four bytes long, skipped in one go
+	//four byte ones are two chars once decoded, and the character scanner reports each of those
+	private void nonAscii(byte lead){
+		int length = (lead & 0xe0) == 0xc0 ? 2 : (lead & 0xf0) == 0xe0 ? 3 : (lead & 0xf8) == 0xf0 ? 4 : 1;
+		for (int i = 1; i < length && !isAtEnd() && (buffer[current] & 0xc0) == 0x80; i++){
+			advance();
+		}
+
+		reporter.error(line, "unexpected character");
+		if (length == 4) reporter.error(line, "unexpected character");
+	}
+
+	//value of the number literal between start and end, digits and a point are all ascii
+	static double parseNumber(ByteBuffer bytes, int start, int end){
+		char[] chars = new char[end - start];
+		for (int i = 0; i < chars.length; i++){
+			chars[i] = (char)bytes.get(start + i);
+		}
+		return Scanner.parseNumber(chars, 0, chars.length);
+	}
+
+	//the text of a string literal or any other lexeme, malformed input decodes the way new String would
+	static CharBuffer decode(ByteBuffer bytes, int start, int length){
+		ByteBuffer text = bytes.duplicate();
+		text.limit(start + length);
+		text.position(start);
+		return StandardCharsets.UTF_8.decode(text);
+	}
+
+	private boolean match(char expected){
+		if (isAtEnd()) return false;
+		if (buffer[current] != expected) return false;
+
+		current++;
+		return true;
+	}
+
+	private byte peek(){
+		if (isAtEnd()) return '\0';
+		return buffer[current];
+	}
+
+	private byte peekNext(){
+		while (current + 1 >= limit) {
+			if (!fill()) return '\0';
+		}
+		return buffer[current + 1];
+	}
+
+	private boolean isAlpha(byte c){
+		return (c >= 'a' && c <= 'z') ||
+		       (c >= 'A' && c <= 'Z') ||
+		        c == '_';
+	}
+
+	private boolean isAlphaNumeric(byte c){
+		return isAlpha(c) || isDigit(c);
+	}
+
+	private boolean isDigit(byte c){
+		return c >= '0' && c <= '9';
+	}
+
+	private boolean isAtEnd(){
+		return current >= limit && !fill();
+	}
+
+	//slide the current token to the front of the window and copy in the bytes after it, growing the
+	//window if one token fills the whole thing. the same as Scanner.fill, returns false at the end
+	private boolean fill(){
+		int kept = limit - start;
+		if (kept == buffer.length){
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		}
+		System.arraycopy(buffer, start, buffer, 0, kept);
+		base += start;
+		current -= start;
+		start = 0;
+		limit = kept;
+
+		int read = Math.min(buffer.length - limit, input.remaining());
+		if (read <= 0) return false;
+		input.get(buffer, limit, read);
+		limit += read;
+		return true;
+	}
+
+	private byte advance(){
+		current++;
+		return buffer[current - 1];
+	}
+
+	private void addToken(TokenType type){
+		compact.add(type, base + start, current - start, line);
+	}
+}
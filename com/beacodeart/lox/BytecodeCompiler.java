@@ -0,0 +1,292 @@
+package com.beacodeart.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.beacodeart.lox.vm.Chunk;
+import com.beacodeart.lox.vm.OpCode;
+
+/*
+ * BytecodeCompiler
+ *
+ * walks the statements from the parser once and flattens them into a chunk of bytecode for the
+ * VM in com.beacodeart.lox.vm to run. it sits here rather than with the VM so the tree can stay
+ * package private
+ * expressions leave their value on the stack, statements leave the stack as they found it
+ * apart from a var declared in a block, whose value just stays where it is and becomes the local
+ */
+class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+	//a local variable and the block depth it was declared at
+	//its stack slot is its index in the locals list
+	private static class Local {
+		final String name;
+		final int depth;
+
+		Local(String name, int depth){
+			this.name = name;
+			this.depth = depth;
+		}
+	}
+
+	private static final int MAX_OPERAND = 0xffff;
+
+	private final Chunk chunk = new Chunk();
+	private final List<Local> locals = new ArrayList<>();
+	//so repeated names and numbers share one constant
+	private final Map<Object, Integer> constantIndex = new HashMap<>();
+	private int scopeDepth = 0;
+	//tracks the stack height as code is emitted so the vm can size its stack up front
+	private int stackDepth = 0;
+	private int maxStack = 0;
+	//call sites added to the chunk so far, each is indexed by a two byte operand like constants are
+	private int siteCount = 0;
+	//literals don't carry a token, so they borrow the line of the last thing that did
+	private int line = 1;
+
+	//entry point, errors are reported through Lox.error so check hadError before running the chunk
+	Chunk compile(List<Stmt> statements){
+		for (Stmt statement : statements){
+			statement.accept(this);
+		}
+
+		emit(OpCode.RETURN, line);
+		chunk.seal(maxStack);
+		return chunk;
+	}
+
+	private void compile(Expr expr){
+		expr.accept(this);
+	}
+
+	@Override
+	public Void visitBlockStmt(Stmt.Block stmt){
+		scopeDepth++;
+		for (Stmt statement : stmt.statements){
+			statement.accept(this);
+		}
+		scopeDepth--;
+
+		//drop the block's locals in one go
+		int popped = 0;
+		while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > scopeDepth){
+			locals.remove(locals.size() - 1);
+			popped++;
+		}
+
+		if (popped > 0){
+			emitWithOperand(OpCode.POPN, popped, line);
+			stackDepth -= popped;
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitExpressionStmt(Stmt.Expression stmt){
+		compile(stmt.expression);
+		emit(OpCode.POP, line);
+		stackDepth--;
+		return null;
+	}
+
+	@Override
+	public Void visitPrintStmt(Stmt.Print stmt){
+		compile(stmt.expression);
+		emit(OpCode.PRINT, line);
+		stackDepth--;
+		return null;
+	}
+
+	@Override
+	public Void visitVarStmt(Stmt.Var stmt){
+		line = stmt.name.line;
+		//initializer first, so var a = a; reads whatever a meant before this declaration
+		if (stmt.initializer != null){
+			compile(stmt.initializer);
+		} else {
+			emit(OpCode.NIL, line);
+			push();
+		}
+
+		if (scopeDepth == 0){
+			emitWithOperand(OpCode.DEFINE_GLOBAL, nameConstant(stmt.name), stmt.name.line);
+			stackDepth--;
+			return null;
+		}
+
+		//redeclaring in the same block overwrites the existing local
+		int existing = resolveLocal(stmt.name.lexeme, scopeDepth);
+		if (existing >= 0){
+			emitWithOperand(OpCode.SET_LOCAL, existing, stmt.name.line);
+			emit(OpCode.POP, stmt.name.line);
+			stackDepth--;
+			return null;
+		}
+
+		if (locals.size() > MAX_OPERAND){
+			Lox.error(stmt.name, "Too many local variables.");
+			return null;
+		}
+
+		//the value is already sitting in the right stack slot
+		locals.add(new Local(stmt.name.lexeme, scopeDepth));
+		return null;
+	}
+
+	@Override
+	public Void visitAssignExpr(Expr.Assign expr){
+		compile(expr.value);
+		line = expr.name.line;
+
+		int slot = resolveLocal(expr.name.lexeme, 0);
+		if (slot >= 0){
+			emitWithOperand(OpCode.SET_LOCAL, slot, line);
+		} else {
+			emitWithOperand(OpCode.SET_GLOBAL, nameConstant(expr.name), line);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitBinaryExpr(Expr.Binary expr){
+		compile(expr.left);
+		compile(expr.right);
+		line = expr.operator.line;
+
+		switch (expr.operator.type) {
+			case BANG_EQUAL: emit(OpCode.NOT_EQUAL, line); break;
+			case EQUAL_EQUAL: emit(OpCode.EQUAL, line); break;
+			case GREATER: emit(OpCode.GREATER, line); break;
+			case GREATER_EQUAL: emit(OpCode.GREATER_EQUAL, line); break;
+			case LESS: emit(OpCode.LESS, line); break;
+			case LESS_EQUAL: emit(OpCode.LESS_EQUAL, line); break;
+			case MINUS: emit(OpCode.SUBTRACT, line); break;
+			case PLUS: emit(OpCode.ADD, line); break;
+			case SLASH: emit(OpCode.DIVIDE, line); break;
+			case STAR: emit(OpCode.MULTIPLY, line); break;
+			default: break;
+		}
+
+		//two operands in, one result out
+		stackDepth--;
+		return null;
+	}
+
+	@Override
+	public Void visitCallExpr(Expr.Call expr){
+		compile(expr.callee);
+		for (Expr argument : expr.arguments){
+			compile(argument);
+		}
+		line = expr.paren.line;
+
+		if (siteCount > MAX_OPERAND){
+			Lox.error(line, "Too many calls in one chunk.");
+			return null;
+		}
+
+		emitWithOperand(OpCode.CALL, expr.arguments.size(), line);
+		chunk.writeShort(chunk.addSite(line), line);
+		siteCount++;
+		//callee and arguments in, one result out
+		stackDepth -= expr.arguments.size();
+		return null;
+	}
+
+	@Override
+	public Void visitGroupingExpr(Expr.Grouping expr){
+		compile(expr.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitLiteralExpr(Expr.Literal expr){
+		if (expr.value == null){
+			emit(OpCode.NIL, line);
+		} else if (expr.value.equals(true)){
+			emit(OpCode.TRUE, line);
+		} else if (expr.value.equals(false)){
+			emit(OpCode.FALSE, line);
+		} else {
+			emitWithOperand(OpCode.CONSTANT, constant(expr.value), line);
+		}
+
+		push();
+		return null;
+	}
+
+	@Override
+	public Void visitUnaryExpr(Expr.Unary expr){
+		compile(expr.right);
+		line = expr.operator.line;
+
+		switch (expr.operator.type) {
+			case BANG: emit(OpCode.NOT, line); break;
+			case MINUS: emit(OpCode.NEGATE, line); break;
+			default: break;
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitVariableExpr(Expr.Variable expr){
+		line = expr.name.line;
+
+		int slot = resolveLocal(expr.name.lexeme, 0);
+		if (slot >= 0){
+			emitWithOperand(OpCode.GET_LOCAL, slot, line);
+		} else {
+			emitWithOperand(OpCode.GET_GLOBAL, nameConstant(expr.name), line);
+		}
+
+		push();
+		return null;
+	}
+
+	//helper methods
+	//
+	//search the locals innermost first, ignoring any declared shallower than minDepth
+	//returns the stack slot or -1 if it's a global
+	private int resolveLocal(String name, int minDepth){
+		for (int i = locals.size() - 1; i >= 0; i--){
+			Local local = locals.get(i);
+			if (local.depth < minDepth) break;
+			if (local.name.equals(name)) return i;
+		}
+
+		return -1;
+	}
+
+	private int nameConstant(Token name){
+		return constant(name.lexeme);
+	}
+
+	private int constant(Object value){
+		Integer index = constantIndex.get(value);
+		if (index != null) return index;
+
+		if (constantIndex.size() > MAX_OPERAND){
+			Lox.error(line, "Too many constants in one chunk.");
+			return 0;
+		}
+
+		index = chunk.addConstant(value);
+		constantIndex.put(value, index);
+		return index;
+	}
+
+	private void push(){
+		stackDepth++;
+		if (stackDepth > maxStack) maxStack = stackDepth;
+	}
+
+	private void emit(byte op, int line){
+		chunk.write(op, line);
+	}
+
+	private void emitWithOperand(byte op, int operand, int line){
+		chunk.write(op, line);
+		chunk.writeShort(operand, line);
+	}
+}
@@ -0,0 +1,289 @@
+package com.beacodeart.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * ClassBuilder
+ *
+ * just enough of a class file writer to emit the classes JvmCompiler generates
+ * keeps a deduplicated constant pool, a list of fields and a list of methods, and writes them out
+ * in the class file layout. the generated code never branches, so no stack map frames are needed
+ */
+final class ClassBuilder {
+	//opcodes used by the compiler
+	static final int ACONST_NULL = 0x01;
+	static final int ICONST_1 = 0x04;
+	static final int LDC_W = 0x13;
+	static final int LDC2_W = 0x14;
+	static final int ALOAD = 0x19;
+	static final int ALOAD_0 = 0x2a;
+	static final int ALOAD_1 = 0x2b;
+	static final int ASTORE = 0x3a;
+	static final int AASTORE = 0x53;
+	static final int POP = 0x57;
+	static final int POP2 = 0x58;
+	static final int DUP = 0x59;
+	static final int DADD = 0x63;
+	static final int DSUB = 0x67;
+	static final int DMUL = 0x6b;
+	static final int DDIV = 0x6f;
+	static final int DNEG = 0x77;
+	static final int IXOR = 0x82;
+	static final int RETURN = 0xb1;
+	static final int GETSTATIC = 0xb2;
+	static final int PUTSTATIC = 0xb3;
+	static final int INVOKEVIRTUAL = 0xb6;
+	static final int INVOKESPECIAL = 0xb7;
+	static final int INVOKESTATIC = 0xb8;
+	static final int ANEWARRAY = 0xbd;
+	static final int WIDE = 0xc4;
+
+	static final int ACC_PUBLIC = 0x0001;
+	static final int ACC_PRIVATE = 0x0002;
+	static final int ACC_STATIC = 0x0008;
+	static final int ACC_FINAL = 0x0010;
+	static final int ACC_SUPER = 0x0020;
+
+	//largest method body the jvm accepts
+	static final int MAX_CODE_LENGTH = 65535;
+
+	//bytecode for one method, tracks how deep the operand stack gets as instructions are added
+	static final class Code {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private int stack = 0;
+		private int maxStack = 0;
+		private int maxLocals = 0;
+
+		//an instruction and what it does to the stack height, in slots
+		void op(int opcode, int stackEffect){
+			bytes.write(opcode);
+			stack += stackEffect;
+			if (stack > maxStack) maxStack = stack;
+		}
+
+		void u1(int value){
+			bytes.write(value);
+		}
+
+		void u2(int value){
+			bytes.write(value >> 8);
+			bytes.write(value);
+		}
+
+		//local variable access, switching to the wide form past slot 255
+		void local(int opcode, int slot, int stackEffect){
+			if (slot > 255){
+				op(WIDE, 0);
+				op(opcode, stackEffect);
+				u2(slot);
+			} else {
+				op(opcode, stackEffect);
+				u1(slot);
+			}
+			if (slot + 1 > maxLocals) maxLocals = slot + 1;
+		}
+
+		void useLocals(int count){
+			if (count > maxLocals) maxLocals = count;
+		}
+
+		//tack on code that starts and ends with an empty stack
+		void append(Code other){
+			byte[] code = other.bytes.toByteArray();
+			bytes.write(code, 0, code.length);
+			maxStack = Math.max(maxStack, other.maxStack);
+			maxLocals = Math.max(maxLocals, other.maxLocals);
+		}
+
+		int length(){
+			return bytes.size();
+		}
+	}
+
+	private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private final DataOutputStream poolOut = new DataOutputStream(pool);
+	private final Map<String, Integer> poolIndex = new HashMap<>();
+	private int poolCount = 1;
+
+	private final List<byte[]> fields = new ArrayList<>();
+	private final List<byte[]> methods = new ArrayList<>();
+
+	//constant pool
+	//
+	int utf8(String value){
+		return constant("U" + value, 1, out -> {
+			out.writeByte(1);
+			out.writeUTF(value);
+		});
+	}
+
+	int classRef(String internalName){
+		int name = utf8(internalName);
+		return constant("C" + internalName, 1, out -> {
+			out.writeByte(7);
+			out.writeShort(name);
+		});
+	}
+
+	int string(String value){
+		int utf = utf8(value);
+		return constant("S" + value, 1, out -> {
+			out.writeByte(8);
+			out.writeShort(utf);
+		});
+	}
+
+	int integer(int value){
+		return constant("I" + value, 1, out -> {
+			out.writeByte(3);
+			out.writeInt(value);
+		});
+	}
+
+	//doubles take up two pool entries
+	int doubleConstant(double value){
+		long bits = Double.doubleToRawLongBits(value);
+		return constant("D" + bits, 2, out -> {
+			out.writeByte(6);
+			out.writeLong(bits);
+		});
+	}
+
+	int fieldRef(String owner, String name, String descriptor){
+		return memberRef(9, owner, name, descriptor);
+	}
+
+	int methodRef(String owner, String name, String descriptor){
+		return memberRef(10, owner, name, descriptor);
+	}
+
+	private int memberRef(int tag, String owner, String name, String descriptor){
+		int ownerIndex = classRef(owner);
+		int nameIndex = utf8(name);
+		int descriptorIndex = utf8(descriptor);
+		int nameAndType = constant("N" + name + ":" + descriptor, 1, out -> {
+			out.writeByte(12);
+			out.writeShort(nameIndex);
+			out.writeShort(descriptorIndex);
+		});
+		return constant("M" + tag + owner + "." + name + ":" + descriptor, 1, out -> {
+			out.writeByte(tag);
+			out.writeShort(ownerIndex);
+			out.writeShort(nameAndType);
+		});
+	}
+
+	private interface Entry {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	//adds the entry unless an equal one is already there, returns its index
+	private int constant(String key, int size, Entry entry){
+		Integer index = poolIndex.get(key);
+		if (index != null) return index;
+
+		try {
+			entry.write(poolOut);
+		} catch (IOException error){
+			throw new UncheckedIOException(error);
+		}
+
+		index = poolCount;
+		poolCount += size;
+		poolIndex.put(key, index);
+		return index;
+	}
+
+	//true once the pool has outgrown what the class file format can index
+	boolean poolOverflowed(){
+		return poolCount > 0xffff;
+	}
+
+	//members
+	//
+	void field(int access, String name, String descriptor){
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeShort(access);
+			out.writeShort(utf8(name));
+			out.writeShort(utf8(descriptor));
+			out.writeShort(0);
+		} catch (IOException error){
+			throw new UncheckedIOException(error);
+		}
+		fields.add(bytes.toByteArray());
+	}
+
+	void method(int access, String name, String descriptor, Code code){
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeShort(access);
+			out.writeShort(utf8(name));
+			out.writeShort(utf8(descriptor));
+			out.writeShort(1);
+
+			//the Code attribute
+			out.writeShort(utf8("Code"));
+			out.writeInt(12 + code.length());
+			out.writeShort(code.maxStack);
+			out.writeShort(code.maxLocals);
+			out.writeInt(code.length());
+			code.bytes.writeTo(out);
+			out.writeShort(0);
+			out.writeShort(0);
+		} catch (IOException error){
+			throw new UncheckedIOException(error);
+		}
+		methods.add(bytes.toByteArray());
+	}
+
+	byte[] toByteArray(String thisClass, String superClass, String... interfaces){
+		int thisIndex = classRef(thisClass);
+		int superIndex = classRef(superClass);
+		int[] interfaceIndexes = new int[interfaces.length];
+		for (int i = 0; i < interfaces.length; i++){
+			interfaceIndexes[i] = classRef(interfaces[i]);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			//java 8 class files, anything later would need stack maps the moment there was a branch
+			out.writeShort(52);
+			out.writeShort(poolCount);
+			pool.writeTo(out);
+
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisIndex);
+			out.writeShort(superIndex);
+			out.writeShort(interfaceIndexes.length);
+			for (int index : interfaceIndexes){
+				out.writeShort(index);
+			}
+
+			out.writeShort(fields.size());
+			for (byte[] field : fields){
+				out.write(field);
+			}
+			out.writeShort(methods.size());
+			for (byte[] method : methods){
+				out.write(method);
+			}
+			out.writeShort(0);
+		} catch (IOException error){
+			throw new UncheckedIOException(error);
+		}
+		return bytes.toByteArray();
+	}
+}
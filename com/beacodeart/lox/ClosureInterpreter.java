@@ -0,0 +1,415 @@
+package com.beacodeart.lox;
+
+import java.util.List;
+
+/*
+ * ClosureInterpreter
+ *
+ * alternative execution mode selected with --closure
+ * translates the resolved statements once into a tree of lambdas and then just calls them
+ * everything the Interpreter works out on each visit is decided during translation instead,
+ * which operator a binary is, whether a variable is a slot or a global and where it lives, whether
+ * an expression can stay an unboxed double. running the result is a chain of direct calls
+ * with no visitor dispatch and no switches
+ *
+ * errors are raised with the same tokens, messages and evaluation order as the Interpreter
+ */
+class ClosureInterpreter implements Expr.Visitor<ClosureInterpreter.Evaluation>, Stmt.Visitor<ClosureInterpreter.Execution> {
+	//a translated statement
+	interface Execution {
+		void execute(Environment environment);
+	}
+
+	//a translated expression
+	interface Evaluation {
+		Object evaluate(Environment environment);
+	}
+
+	//a translated expression the parser knows is numeric, never boxed
+	interface NumberEvaluation {
+		double evaluate(Environment environment);
+	}
+
+	private final GlobalTable globals = new GlobalTable();
+	//top level statements run in an empty environment, see Environment
+	private final Environment environment = new Environment(null, 0);
+	private final OutputSink output;
+
+	ClosureInterpreter(OutputSink output){
+		this.output = output;
+		Natives.define(globals);
+	}
+
+	//entry point, same error handling as Interpreter.interpret
+	void interpret(List<Stmt> statements){
+		run(translate(statements));
+	}
+
+	//runs a program translated earlier, against the globals this interpreter keeps between runs
+	void run(Execution[] program){
+		try {
+			for (Execution statement : program){
+				statement.execute(environment);
+			}
+		} catch (RuntimeError error){
+			Lox.runtimeError(error);
+		}
+	}
+
+	Execution[] translate(List<Stmt> statements){
+		Execution[] program = new Execution[statements.size()];
+		for (int i = 0; i < program.length; i++){
+			program[i] = statements.get(i).accept(this);
+		}
+
+		return program;
+	}
+
+	private Evaluation translate(Expr expr){
+		return expr.accept(this);
+	}
+
+	//statements
+	//
+	@Override
+	public Execution visitBlockStmt(Stmt.Block stmt){
+		Execution[] statements = translate(stmt.statements);
+		int slotCount = stmt.slotCount;
+		//no variables, no scope of its own
+		if (slotCount == 0){
+			return environment -> {
+				for (Execution statement : statements){
+					statement.execute(environment);
+				}
+			};
+		}
+
+		return environment -> {
+			Environment local = new Environment(environment, slotCount);
+			for (Execution statement : statements){
+				statement.execute(local);
+			}
+		};
+	}
+
+	@Override
+	public Execution visitExpressionStmt(Stmt.Expression stmt){
+		//a numeric expression whose value is thrown away never needs boxing
+		if (stmt.expression.numeric()){
+			NumberEvaluation expression = number(stmt.expression);
+			return environment -> expression.evaluate(environment);
+		}
+
+		Evaluation expression = translate(stmt.expression);
+		return environment -> expression.evaluate(environment);
+	}
+
+	@Override
+	public Execution visitPrintStmt(Stmt.Print stmt){
+		Evaluation expression = translate(stmt.expression);
+		return environment -> output.println(Values.stringify(expression.evaluate(environment)));
+	}
+
+	@Override
+	public Execution visitVarStmt(Stmt.Var stmt){
+		Evaluation initializer = stmt.initializer == null ? environment -> null : translate(stmt.initializer);
+
+		int slot = stmt.slot;
+		if (slot >= 0){
+			return environment -> environment.defineAt(slot, initializer.evaluate(environment));
+		}
+
+		//the cell is found once, here, a global is a field access from then on
+		GlobalTable.Cell cell = globals.cell(stmt.name.symbol);
+		return environment -> cell.define(initializer.evaluate(environment));
+	}
+
+	//expressions
+	//
+	@Override
+	public Evaluation visitAssignExpr(Expr.Assign expr){
+		Evaluation value = translate(expr.value);
+
+		if (expr.depth >= 0){
+			int depth = expr.depth;
+			int slot = expr.slot;
+			return environment -> {
+				Object result = value.evaluate(environment);
+				environment.assignAt(depth, slot, result);
+				return result;
+			};
+		}
+
+		Token name = expr.name;
+		GlobalTable.Cell cell = globals.cell(name.symbol);
+		return environment -> {
+			Object result = value.evaluate(environment);
+			cell.assign(name, result);
+			return result;
+		};
+	}
+
+	@Override
+	public Evaluation visitBinaryExpr(Expr.Binary expr){
+		if (expr.numeric()){
+			NumberEvaluation result = number(expr);
+			return environment -> result.evaluate(environment);
+		}
+
+		switch (expr.operator.type) {
+			case BANG_EQUAL: {
+				Equality equal = equality(expr);
+				return environment -> !equal.test(environment);
+			}
+			case EQUAL_EQUAL: {
+				Equality equal = equality(expr);
+				return environment -> equal.test(environment);
+			}
+			case GREATER: {
+				NumberEvaluation left = leftOperand(expr);
+				NumberEvaluation right = rightOperand(expr);
+				return environment -> left.evaluate(environment) > right.evaluate(environment);
+			}
+			case GREATER_EQUAL: {
+				NumberEvaluation left = leftOperand(expr);
+				NumberEvaluation right = rightOperand(expr);
+				return environment -> left.evaluate(environment) >= right.evaluate(environment);
+			}
+			case LESS: {
+				NumberEvaluation left = leftOperand(expr);
+				NumberEvaluation right = rightOperand(expr);
+				return environment -> left.evaluate(environment) < right.evaluate(environment);
+			}
+			case LESS_EQUAL: {
+				NumberEvaluation left = leftOperand(expr);
+				NumberEvaluation right = rightOperand(expr);
+				return environment -> left.evaluate(environment) <= right.evaluate(environment);
+			}
+			case MINUS:
+			case SLASH:
+			case STAR: {
+				NumberEvaluation result = arithmetic(expr);
+				return environment -> result.evaluate(environment);
+			}
+			default: {
+				//plus where the parser couldn't tell, numbers or strings
+				Evaluation left = translate(expr.left);
+				Evaluation right = translate(expr.right);
+				Token operator = expr.operator;
+				return environment -> {
+					Object a = left.evaluate(environment);
+					Object b = right.evaluate(environment);
+
+					if (a instanceof Double && b instanceof Double){
+						return (double)a + (double)b;
+					}
+
+					if (a instanceof CharSequence && b instanceof CharSequence){
+						return Rope.concat((CharSequence)a, (CharSequence)b);
+					}
+
+					throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+				};
+			}
+		}
+	}
+
+	//one closure per argument count, so the arguments are passed straight through like Interpreter
+	@Override
+	public Evaluation visitCallExpr(Expr.Call expr){
+		Evaluation callee = translate(expr.callee);
+		Evaluation[] arguments = new Evaluation[expr.arguments.size()];
+		for (int i = 0; i < arguments.length; i++){
+			arguments[i] = translate(expr.arguments.get(i));
+		}
+		CallSite site = new CallSite(arguments.length, expr.paren.line);
+		int line = site.line;
+
+		switch (arguments.length) {
+			case 0:
+				return environment -> site.function(callee.evaluate(environment)).call(line);
+			case 1: {
+				Evaluation first = arguments[0];
+				return environment -> {
+					Object function = callee.evaluate(environment);
+					Object a = first.evaluate(environment);
+					return site.function(function).call(line, a);
+				};
+			}
+			case 2: {
+				Evaluation first = arguments[0];
+				Evaluation second = arguments[1];
+				return environment -> {
+					Object function = callee.evaluate(environment);
+					Object a = first.evaluate(environment);
+					Object b = second.evaluate(environment);
+					return site.function(function).call(line, a, b);
+				};
+			}
+			case 3: {
+				Evaluation first = arguments[0];
+				Evaluation second = arguments[1];
+				Evaluation third = arguments[2];
+				return environment -> {
+					Object function = callee.evaluate(environment);
+					Object a = first.evaluate(environment);
+					Object b = second.evaluate(environment);
+					Object c = third.evaluate(environment);
+					return site.function(function).call(line, a, b, c);
+				};
+			}
+			default:
+				return environment -> {
+					Object function = callee.evaluate(environment);
+					Object[] values = new Object[arguments.length];
+					for (int i = 0; i < values.length; i++){
+						values[i] = arguments[i].evaluate(environment);
+					}
+					return site.function(function).call(line, values);
+				};
+		}
+	}
+
+	@Override
+	public Evaluation visitGroupingExpr(Expr.Grouping expr){
+		return translate(expr.expression);
+	}
+
+	@Override
+	public Evaluation visitLiteralExpr(Expr.Literal expr){
+		Object value = expr.value;
+		return environment -> value;
+	}
+
+	@Override
+	public Evaluation visitUnaryExpr(Expr.Unary expr){
+		if (expr.operator.type == TokenType.BANG){
+			Evaluation right = translate(expr.right);
+			return environment -> !Values.isTruthy(right.evaluate(environment));
+		}
+
+		NumberEvaluation result = negate(expr);
+		return environment -> result.evaluate(environment);
+	}
+
+	@Override
+	public Evaluation visitVariableExpr(Expr.Variable expr){
+		int depth = expr.depth;
+		int slot = expr.slot;
+		if (depth == 0){
+			return environment -> environment.getAt(0, slot);
+		}
+		if (depth > 0){
+			return environment -> environment.getAt(depth, slot);
+		}
+
+		Token name = expr.name;
+		GlobalTable.Cell cell = globals.cell(name.symbol);
+		return environment -> cell.get(name);
+	}
+
+	//numeric translation, mirrors Interpreter.evaluateNumber and friends
+	//
+	private NumberEvaluation number(Expr expr){
+		if (expr instanceof Expr.Binary) return arithmetic((Expr.Binary)expr);
+		if (expr instanceof Expr.Unary) return negate((Expr.Unary)expr);
+		if (expr instanceof Expr.Grouping) return number(((Expr.Grouping)expr).expression);
+
+		double value = (double)((Expr.Literal)expr).value;
+		return environment -> value;
+	}
+
+	private NumberEvaluation arithmetic(Expr.Binary expr){
+		NumberEvaluation left = leftOperand(expr);
+		NumberEvaluation right = rightOperand(expr);
+
+		switch (expr.operator.type) {
+			case MINUS: return environment -> left.evaluate(environment) - right.evaluate(environment);
+			case PLUS: return environment -> left.evaluate(environment) + right.evaluate(environment);
+			case SLASH: return environment -> left.evaluate(environment) / right.evaluate(environment);
+			default: return environment -> left.evaluate(environment) * right.evaluate(environment);
+		}
+	}
+
+	//if the left side isn't a number the right side still gets evaluated before the error
+	private NumberEvaluation leftOperand(Expr.Binary expr){
+		if (expr.left.numeric()) return number(expr.left);
+
+		Evaluation left = translate(expr.left);
+		Evaluation right = translate(expr.right);
+		Token operator = expr.operator;
+		return environment -> {
+			Object value = left.evaluate(environment);
+			if (!(value instanceof Double)){
+				right.evaluate(environment);
+				throw new RuntimeError(operator, "Operands must be numbers.");
+			}
+			return (double)value;
+		};
+	}
+
+	private NumberEvaluation rightOperand(Expr.Binary expr){
+		if (expr.right.numeric()) return number(expr.right);
+
+		Evaluation right = translate(expr.right);
+		Token operator = expr.operator;
+		return environment -> {
+			Object value = right.evaluate(environment);
+			if (!(value instanceof Double)){
+				throw new RuntimeError(operator, "Operands must be numbers.");
+			}
+			return (double)value;
+		};
+	}
+
+	private NumberEvaluation negate(Expr.Unary expr){
+		if (expr.right.numeric()){
+			NumberEvaluation right = number(expr.right);
+			return environment -> -right.evaluate(environment);
+		}
+
+		Evaluation right = translate(expr.right);
+		Token operator = expr.operator;
+		return environment -> {
+			Object value = right.evaluate(environment);
+			if (!(value instanceof Double)){
+				throw new RuntimeError(operator, "Operand must be a number.");
+			}
+			return -(double)value;
+		};
+	}
+
+	//the arity check for one call site, only redone when a different function turns up
+	private static final class CallSite {
+		final int count;
+		final int line;
+		private NativeFunction checked;
+
+		CallSite(int count, int line){
+			this.count = count;
+			this.line = line;
+		}
+
+		NativeFunction function(Object callee){
+			if (checked != null && callee == checked) return checked;
+			checked = NativeFunction.check(callee, count, line);
+			return checked;
+		}
+	}
+
+	private interface Equality {
+		boolean test(Environment environment);
+	}
+
+	private Equality equality(Expr.Binary expr){
+		if (expr.left.numeric() && expr.right.numeric()){
+			NumberEvaluation left = number(expr.left);
+			NumberEvaluation right = number(expr.right);
+			return environment -> Double.compare(left.evaluate(environment), right.evaluate(environment)) == 0;
+		}
+
+		Evaluation left = translate(expr.left);
+		Evaluation right = translate(expr.right);
+		return environment -> Values.isEqual(left.evaluate(environment), right.evaluate(environment));
+	}
+}
@@ -1,54 +1,54 @@
 package com.beacodeart.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 //environment is basically a map holding context
 //each environment holds a reference to an enclosing environment.
 //local variables go out of scope, global variables are available to local scpe although
 //local variables with names that shadow global scope can be introduced
+//
+//environments are array backed, the resolver has already worked out which slot each local lives in
+//globals don't live in an environment at all, see GlobalTable. the top level runs in an empty one
 public class Environment {
-    private final Map<String, Object> values = new HashMap<>();
-    final Environment enclosing;
-   
-    //default constructor
-    Environment(){
-        enclosing = null;
-    }
+    private final Object[] slots;
+    //not final so Interpreter can pool environments, see Interpreter.visitBlockStmt
+    Environment enclosing;
 
-    //constructor for local environment
-    Environment(Environment enclosing){
+    //constructor for a resolved local environment with a fixed number of slots
+    Environment(Environment enclosing, int size){
         this.enclosing = enclosing;
+        slots = new Object[size];
     }
-   
-    //get the value of a token given the name
-    Object get(Token name){
-        if (values.containsKey(name.lexeme)){
-            return values.get(name.lexeme);
-        }
 
-        if (enclosing != null) return enclosing.get(name);
-    
-        throw new RuntimeError(name, "undefined variable " + name.lexeme + ".");
+    //resolved access, hop out a fixed number of scopes then index straight into the array
+    Object getAt(int depth, int slot){
+        return ancestor(depth).slots[slot];
     }
 
-    //method to assign a value to the name of a variable
-    void assign(Token name, Object value){
-        if (values.containsKey(name.lexeme)){
-            values.put(name.lexeme, value);
-            return;
-        }
+    void assignAt(int depth, int slot, Object value){
+        ancestor(depth).slots[slot] = value;
+    }
 
-        if (enclosing != null){
-            enclosing.assign(name, value);
-            return;
-        }
+    void defineAt(int slot, Object value){
+        slots[slot] = value;
+    }
+
+    int capacity(){
+        return slots.length;
+    }
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    //pooled environments are cleared when their block exits so they don't keep values alive
+    void clear(int size){
+        Arrays.fill(slots, 0, size, null);
+        enclosing = null;
     }
 
-    //redefine variable
-    void define(String name, Object value){
-        values.put(name, value);
+    private Environment ancestor(int depth){
+        Environment environment = this;
+        for (int i = 0; i < depth; i++){
+            environment = environment.enclosing;
+        }
+
+        return environment;
     }
 }
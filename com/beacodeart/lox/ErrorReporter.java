@@ -0,0 +1,29 @@
+package com.beacodeart.lox;
+
+/*
+ * ErrorReporter
+ *
+ * where the scanner and parser send syntax errors
+ * Lox has the one that prints to stderr and sets hadError, an embedded Program collects its own
+ * so compiling two scripts at once on different threads doesn't mix up their errors
+ */
+interface ErrorReporter {
+	void report(int line, String where, String message);
+
+	default void error(int line, String message){
+		report(line, "", message);
+	}
+
+	default void error(Token token, String message){
+		if (token.type == TokenType.EOF) {
+			report(token.line, "at end", message);
+		} else {
+			report(token.line, " at '" + token.lexeme + "'", message);
+		}
+	}
+
+	//the text every reporter uses for an error
+	static String format(int line, String where, String message){
+		return "[Line " + line + "] Error " + where + ": " + message;
+	}
+}
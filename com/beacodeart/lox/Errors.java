@@ -0,0 +1,16 @@
+package com.beacodeart.lox;
+
+/*
+ * Errors
+ *
+ * the one way the vm and jvm packages can raise a lox runtime error
+ * RuntimeError stays package private along with the tokens it can carry, the engines outside this
+ * package only ever know a line and a message, and Lox reports what they throw like any other
+ */
+public final class Errors {
+	private Errors(){}
+
+	public static RuntimeException runtime(int line, String message){
+		return new RuntimeError(line, message);
+	}
+}
@@ -1,5 +1,7 @@
 package com.beacodeart.lox;
 
+import java.util.List;
+
 // expression class
 // because of nesting expressions can forn a tree
 abstract class Expr {
@@ -8,6 +10,7 @@ abstract class Expr {
 	interface Visitor<R> {
 	R visitAssignExpr(Assign expr);
 	R visitBinaryExpr(Binary expr);
+	R visitCallExpr(Call expr);
 	R visitGroupingExpr(Grouping expr);
 	R visitLiteralExpr(Literal expr);
 	R visitUnaryExpr(Unary expr);
@@ -20,6 +23,11 @@ abstract class Expr {
 	this.left = left;
 	this.operator = operator;
 	this.right = right;
+	switch (operator.type) {
+		case MINUS: case STAR: case SLASH: this.numeric = true; break;
+		case PLUS: this.numeric = left.numeric() && right.numeric(); break;
+		default: this.numeric = false;
+	}
 	}
 
 	@Override
@@ -30,12 +38,43 @@ abstract class Expr {
 	final Expr left;
 	final Token operator;
 	final Expr right;
+	private final boolean numeric;
+
+	@Override
+	boolean numeric() {
+	return numeric;
+	}
  }
  
+	// callee(arguments)
+	static class Call extends Expr {
+	Call(Expr callee, Token paren, List<Expr> arguments) {
+	this.callee = callee;
+	this.paren = paren;
+	this.arguments = arguments;
+	}
+
+	@Override
+	<R> R accept(Visitor<R> visitor) {
+	return visitor.visitCallExpr(this);
+	}
+
+	final Expr callee;
+	// the closing paren, its line is where call errors are reported
+	final Token paren;
+	final List<Expr> arguments;
+	// the last function called here that took this many arguments, so the arity check
+	// only runs again when a different function turns up. any thread may set it, every
+	// value it can hold has passed the check for this call site
+	NativeFunction checked;
+ }
+
 	//(expr)
 	static class Grouping extends Expr {
 	Grouping(Expr expression) {
 	this.expression = expression;
+	// worked out once so deeply nested parentheses don't recurse
+	this.numeric = expression.numeric();
 	}
 
 	@Override
@@ -43,7 +82,13 @@ abstract class Expr {
 	return visitor.visitGroupingExpr(this);
 	}
 
+	@Override
+	boolean numeric() {
+	return numeric;
+	}
+
 	final Expr expression;
+	private final boolean numeric;
  }
 
 	// value
@@ -57,6 +102,11 @@ abstract class Expr {
 	return visitor.visitLiteralExpr(this);
 	}
 
+	@Override
+	boolean numeric() {
+	return value instanceof Double;
+	}
+
 	final Object value;
  }
  
@@ -73,6 +123,11 @@ abstract class Expr {
 	return visitor.visitUnaryExpr(this);
 	}
 
+	@Override
+	boolean numeric() {
+	return operator.type == TokenType.MINUS;
+	}
+
 	final Token operator;
 	final Expr right;
  }
@@ -88,6 +143,11 @@ abstract class Expr {
     }
 
     final Token name;
+    //filled in by the resolver, depth -1 means global
+    int depth = -1;
+    int slot;
+    //for a global, the cell it was last found in, see Interpreter.cell
+    GlobalTable.Cell cell;
   }
 
   static class Assign extends Expr {
@@ -103,8 +163,19 @@ abstract class Expr {
 
     final Token name;
     final Expr value;
+    //filled in by the resolver, depth -1 means global
+    int depth = -1;
+    int slot;
+    //for a global, the cell it was last found in, see Interpreter.cell
+    GlobalTable.Cell cell;
   }
 
 
 	abstract <R> R accept(Visitor<R> visitor);
+
+	// true when evaluating this can only ever give a number (or a runtime error)
+	// lets the interpreter keep whole arithmetic subtrees as primitive doubles
+	boolean numeric() {
+		return false;
+	}
 }
@@ -0,0 +1,313 @@
+package com.beacodeart.lox;
+
+import java.util.Arrays;
+
+/*
+ * FlatInterpreter
+ *
+ * alternative execution mode selected with --flat, walks a FlatTree by node index
+ * it is the tree walker over a different encoding, the same recursion, the same unboxed number
+ * paths and the same pooled block environments as Interpreter, but dispatch is a switch on a
+ * byte and every operand is read out of an array instead of a field of some node object
+ *
+ * errors are raised with the same lines, messages and evaluation order as the Interpreter
+ */
+class FlatInterpreter {
+	private final GlobalTable globals = new GlobalTable();
+	private Environment environment = new Environment(null, 0);
+	//block environments for reuse, indexed by how many blocks deep they are, see Interpreter.visitBlockStmt
+	private Environment[] pool = new Environment[16];
+	private int depth = 0;
+	private final OutputSink output;
+
+	//the arrays of the tree being run, copied out of it so every read is one field load
+	private FlatTree tree;
+	private byte[] kinds;
+	private int[] a;
+	private int[] b;
+	private int[] c;
+	private int[] lines;
+	private int[] lists;
+	private Object[] constants;
+
+	FlatInterpreter(OutputSink output){
+		this.output = output;
+		Natives.define(globals);
+	}
+
+	//entry point, same error handling as Interpreter.interpret
+	void interpret(FlatTree tree){
+		use(tree);
+		try {
+			for (int i = 0; i < tree.statementCount; i++){
+				execute(lists[tree.program + i]);
+			}
+		} catch (RuntimeError error){
+			Lox.runtimeError(error);
+		}
+	}
+
+	private void use(FlatTree tree){
+		this.tree = tree;
+		kinds = tree.kinds;
+		a = tree.a;
+		b = tree.b;
+		c = tree.c;
+		lines = tree.lines;
+		lists = tree.lists;
+		constants = tree.constants;
+	}
+
+	//statements
+	//
+	private void execute(int node){
+		switch (kinds[node]) {
+			case FlatTree.EXPRESSION: {
+				int expression = a[node];
+				if (tree.numeric(expression)){
+					number(expression);
+				} else {
+					evaluate(expression);
+				}
+				return;
+			}
+			case FlatTree.PRINT:
+				output.println(Values.stringify(evaluate(a[node])));
+				return;
+			case FlatTree.VAR_LOCAL: {
+				int initializer = b[node];
+				environment.defineAt(a[node], initializer < 0 ? null : evaluate(initializer));
+				return;
+			}
+			case FlatTree.VAR_GLOBAL: {
+				int initializer = b[node];
+				Object value = initializer < 0 ? null : evaluate(initializer);
+				cell(a[node]).define(value);
+				return;
+			}
+			default:
+				block(node);
+		}
+	}
+
+	//a block with no variables runs in the current environment, otherwise it borrows the pooled
+	//environment for its nesting level and hands it back however the block exits
+	private void block(int node){
+		int start = a[node];
+		int end = start + b[node];
+		int slotCount = c[node];
+		if (slotCount == 0){
+			for (int i = start; i < end; i++){
+				execute(lists[i]);
+			}
+			return;
+		}
+
+		if (depth == pool.length) pool = Arrays.copyOf(pool, depth * 2);
+		Environment local = pool[depth];
+		if (local == null || local.capacity() < slotCount){
+			local = new Environment(environment, slotCount);
+			pool[depth] = local;
+		} else {
+			local.enclosing = environment;
+		}
+
+		Environment previous = environment;
+		environment = local;
+		depth++;
+		try {
+			for (int i = start; i < end; i++){
+				execute(lists[i]);
+			}
+		} finally {
+			depth--;
+			environment = previous;
+			local.clear(slotCount);
+		}
+	}
+
+	//expressions
+	//
+	private Object evaluate(int node){
+		switch (kinds[node]) {
+			//already boxed, see FlatTree
+			case FlatTree.NUMBER:
+				return constants[c[node]];
+			case FlatTree.ADD_NUMBERS:
+			case FlatTree.SUBTRACT:
+			case FlatTree.MULTIPLY:
+			case FlatTree.DIVIDE:
+			case FlatTree.NEGATE:
+				return number(node);
+			case FlatTree.CONSTANT:
+				return constants[a[node]];
+			case FlatTree.ADD:
+				return add(node);
+			case FlatTree.EQUAL:
+				return equalOperands(node);
+			case FlatTree.NOT_EQUAL:
+				return !equalOperands(node);
+			case FlatTree.GREATER:
+				return leftOperand(node) > rightOperand(node);
+			case FlatTree.GREATER_EQUAL:
+				return leftOperand(node) >= rightOperand(node);
+			case FlatTree.LESS:
+				return leftOperand(node) < rightOperand(node);
+			case FlatTree.LESS_EQUAL:
+				return leftOperand(node) <= rightOperand(node);
+			case FlatTree.NOT:
+				return !Values.isTruthy(evaluate(a[node]));
+			case FlatTree.GET_LOCAL:
+				return environment.getAt(a[node], b[node]);
+			case FlatTree.GET_GLOBAL: {
+				int name = a[node];
+				return cell(name).get((Symbol)constants[name], lines[node]);
+			}
+			case FlatTree.SET_LOCAL: {
+				Object value = evaluate(c[node]);
+				environment.assignAt(a[node], b[node], value);
+				return value;
+			}
+			case FlatTree.SET_GLOBAL: {
+				Object value = evaluate(c[node]);
+				int name = a[node];
+				cell(name).assign((Symbol)constants[name], lines[node], value);
+				return value;
+			}
+			default:
+				return call(node);
+		}
+	}
+
+	//a node the encoder marked numeric, nothing along the way is boxed
+	private double number(int node){
+		switch (kinds[node]) {
+			case FlatTree.NUMBER: return tree.number(node);
+			case FlatTree.NEGATE: return negate(node);
+			case FlatTree.SUBTRACT: return leftOperand(node) - rightOperand(node);
+			case FlatTree.ADD_NUMBERS: return leftOperand(node) + rightOperand(node);
+			case FlatTree.DIVIDE: return leftOperand(node) / rightOperand(node);
+			default: return leftOperand(node) * rightOperand(node);
+		}
+	}
+
+	//if the left side isn't a number the right side still gets evaluated before the error
+	private double leftOperand(int node){
+		int left = a[node];
+		if (tree.numeric(left)) return number(left);
+
+		Object value = evaluate(left);
+		if (!(value instanceof Double)){
+			evaluate(b[node]);
+			throw new RuntimeError(lines[node], "Operands must be numbers.");
+		}
+		return (double)value;
+	}
+
+	private double rightOperand(int node){
+		int right = b[node];
+		if (tree.numeric(right)) return number(right);
+
+		Object value = evaluate(right);
+		if (!(value instanceof Double)){
+			throw new RuntimeError(lines[node], "Operands must be numbers.");
+		}
+		return (double)value;
+	}
+
+	private double negate(int node){
+		int right = a[node];
+		if (tree.numeric(right)) return -number(right);
+
+		Object value = evaluate(right);
+		if (!(value instanceof Double)){
+			throw new RuntimeError(lines[node], "Operand must be a number.");
+		}
+		return -(double)value;
+	}
+
+	private Object add(int node){
+		Object left = evaluate(a[node]);
+		Object right = evaluate(b[node]);
+
+		if (left instanceof Double && right instanceof Double){
+			return (double)left + (double)right;
+		}
+
+		if (left instanceof CharSequence && right instanceof CharSequence){
+			return Rope.concat((CharSequence)left, (CharSequence)right);
+		}
+
+		throw new RuntimeError(lines[node], "Operands must be two numbers or two strings.");
+	}
+
+	private boolean equalOperands(int node){
+		int left = a[node];
+		int right = b[node];
+		if (tree.numeric(left) && tree.numeric(right)){
+			return Double.compare(number(left), number(right)) == 0;
+		}
+
+		Object first = evaluate(left);
+		Object second = evaluate(right);
+		return Values.isEqual(first, second);
+	}
+
+	//the callee and then the arguments left to right, up to three passed straight through
+	private Object call(int node){
+		int start = a[node];
+		int count = b[node];
+		int line = lines[node];
+		Object callee = evaluate(lists[start]);
+
+		switch (count) {
+			case 0:
+				return function(node, callee).call(line);
+			case 1: {
+				Object first = evaluate(lists[start + 1]);
+				return function(node, callee).call(line, first);
+			}
+			case 2: {
+				Object first = evaluate(lists[start + 1]);
+				Object second = evaluate(lists[start + 2]);
+				return function(node, callee).call(line, first, second);
+			}
+			case 3: {
+				Object first = evaluate(lists[start + 1]);
+				Object second = evaluate(lists[start + 2]);
+				Object third = evaluate(lists[start + 3]);
+				return function(node, callee).call(line, first, second, third);
+			}
+			default: {
+				Object[] values = new Object[count];
+				for (int i = 0; i < count; i++){
+					values[i] = evaluate(lists[start + 1 + i]);
+				}
+				return function(node, callee).call(line, values);
+			}
+		}
+	}
+
+	//helper methods
+	//
+	//the cell for a global name, cached on the tree as long as it belongs to these globals
+	private GlobalTable.Cell cell(int name){
+		GlobalTable.Cell cached = tree.cells[name];
+		if (cached != null && cached.table == globals) return cached;
+
+		cached = globals.cell((Symbol)constants[name]);
+		tree.cells[name] = cached;
+		return cached;
+	}
+
+	//the callee as a function, the arity is only checked when the call site sees a new callee
+	private NativeFunction function(int node, Object callee){
+		int site = c[node];
+		NativeFunction checked = tree.checked[site];
+		if (checked != null && callee == checked) return checked;
+
+		checked = NativeFunction.check(callee, b[node], lines[node]);
+		tree.checked[site] = checked;
+		return checked;
+	}
+}
@@ -0,0 +1,291 @@
+package com.beacodeart.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * FlatTree
+ *
+ * a folded and resolved program packed into a handful of primitive arrays, run by FlatInterpreter
+ * with --flat. a node is an index, its kind, up to three int operands and its line sit at that
+ * index in parallel arrays, so a whole script is a few objects however many nodes it has, instead
+ * of an Expr or Stmt per node with a Token per name and operator. walking it reads neighbouring
+ * array slots rather than chasing references around the heap
+ *
+ * children are always encoded before their parent, an operand that is a node is a smaller index
+ * blocks and calls have any number of children, those are a run of node indices in lists
+ * anything that isn't an int, string literals, booleans and global names, goes in the constant
+ * pool once. numbers are kept in the operands themselves as the two halves of their bits, and
+ * boxed in the pool as well for where a number literal is used as an object, so that never allocates
+ *
+ *   kind            a                 b                c
+ *   NUMBER          high bits         low bits         boxed constant
+ *   arithmetic      left              right
+ *   NEGATE, NOT     operand
+ *   CONSTANT        constant
+ *   comparisons     left              right
+ *   GET_LOCAL       depth             slot
+ *   GET_GLOBAL      name constant
+ *   SET_LOCAL       depth             slot             value
+ *   SET_GLOBAL      name constant                      value
+ *   CALL            first in lists    argument count   call site
+ *   EXPRESSION      expression
+ *   PRINT           expression
+ *   VAR_LOCAL       slot              initializer
+ *   VAR_GLOBAL      name constant     initializer
+ *   BLOCK           first in lists    statement count  slot count
+ *
+ * a call's run in lists is the callee followed by the arguments, a missing initializer is -1
+ */
+final class FlatTree {
+	//numeric kinds come first so telling whether a node is a number is one comparison, see numeric
+	static final byte NUMBER = 0;
+	//plus where both sides are numeric
+	static final byte ADD_NUMBERS = 1;
+	static final byte SUBTRACT = 2;
+	static final byte MULTIPLY = 3;
+	static final byte DIVIDE = 4;
+	static final byte NEGATE = 5;
+
+	static final byte CONSTANT = 6;
+	//plus where the parser couldn't tell, numbers or strings
+	static final byte ADD = 7;
+	static final byte EQUAL = 8;
+	static final byte NOT_EQUAL = 9;
+	static final byte GREATER = 10;
+	static final byte GREATER_EQUAL = 11;
+	static final byte LESS = 12;
+	static final byte LESS_EQUAL = 13;
+	static final byte NOT = 14;
+	static final byte GET_LOCAL = 15;
+	static final byte GET_GLOBAL = 16;
+	static final byte SET_LOCAL = 17;
+	static final byte SET_GLOBAL = 18;
+	static final byte CALL = 19;
+
+	static final byte EXPRESSION = 20;
+	static final byte PRINT = 21;
+	static final byte VAR_LOCAL = 22;
+	static final byte VAR_GLOBAL = 23;
+	static final byte BLOCK = 24;
+
+	final byte[] kinds;
+	final int[] a;
+	final int[] b;
+	final int[] c;
+	final int[] lines;
+	final int[] lists;
+	final Object[] constants;
+	//the top level statements are the first count entries of lists from program on
+	final int program;
+	final int statementCount;
+
+	//for each constant that names a global, the cell it was last found in, see FlatInterpreter.cell
+	final GlobalTable.Cell[] cells;
+	//for each call site, the last function that passed its arity check, like Expr.Call.checked
+	final NativeFunction[] checked;
+
+	private FlatTree(Encoder encoder, int program, int statementCount){
+		int size = encoder.size;
+		this.kinds = Arrays.copyOf(encoder.kinds, size);
+		this.a = Arrays.copyOf(encoder.a, size);
+		this.b = Arrays.copyOf(encoder.b, size);
+		this.c = Arrays.copyOf(encoder.c, size);
+		this.lines = Arrays.copyOf(encoder.lines, size);
+		this.lists = Arrays.copyOf(encoder.lists, encoder.listSize);
+		this.constants = Arrays.copyOf(encoder.constants, encoder.constantCount);
+		this.program = program;
+		this.statementCount = statementCount;
+		this.cells = new GlobalTable.Cell[constants.length];
+		this.checked = new NativeFunction[encoder.siteCount];
+	}
+
+	//takes statements that have been through the Optimizer and the Resolver, like every tree engine
+	static FlatTree encode(List<Stmt> statements){
+		Encoder encoder = new Encoder();
+		int program = encoder.statements(statements);
+		return new FlatTree(encoder, program, statements.size());
+	}
+
+	boolean numeric(int node){
+		return kinds[node] <= NEGATE;
+	}
+
+	double number(int node){
+		return Double.longBitsToDouble(((long)a[node] << 32) | (b[node] & 0xffffffffL));
+	}
+
+	//builds the arrays up one node at a time, growing them as it goes
+	//the node set is small enough that the visitors just hand back the index of what they added
+	private static final class Encoder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+		private byte[] kinds = new byte[256];
+		private int[] a = new int[256];
+		private int[] b = new int[256];
+		private int[] c = new int[256];
+		private int[] lines = new int[256];
+		private int size = 0;
+
+		private int[] lists = new int[64];
+		private int listSize = 0;
+
+		private Object[] constants = new Object[16];
+		private int constantCount = 0;
+		private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+		private int siteCount = 0;
+
+		private int node(byte kind, int a, int b, int c, int line){
+			if (size == kinds.length){
+				int capacity = size * 2;
+				kinds = Arrays.copyOf(kinds, capacity);
+				this.a = Arrays.copyOf(this.a, capacity);
+				this.b = Arrays.copyOf(this.b, capacity);
+				this.c = Arrays.copyOf(this.c, capacity);
+				lines = Arrays.copyOf(lines, capacity);
+			}
+
+			kinds[size] = kind;
+			this.a[size] = a;
+			this.b[size] = b;
+			this.c[size] = c;
+			lines[size] = line;
+			return size++;
+		}
+
+		//children are encoded first, nested blocks add their own runs to lists while that happens,
+		//so the indices are gathered here and copied into lists once they are all known
+		private int list(int[] nodes){
+			if (listSize + nodes.length > lists.length){
+				lists = Arrays.copyOf(lists, Math.max(lists.length * 2, listSize + nodes.length));
+			}
+
+			System.arraycopy(nodes, 0, lists, listSize, nodes.length);
+			int start = listSize;
+			listSize += nodes.length;
+			return start;
+		}
+
+		private int constant(Object value){
+			Integer index = constantIndex.get(value);
+			if (index != null) return index;
+
+			if (constantCount == constants.length) constants = Arrays.copyOf(constants, constantCount * 2);
+			constants[constantCount] = value;
+			constantIndex.put(value, constantCount);
+			return constantCount++;
+		}
+
+		private int statements(List<Stmt> statements){
+			int[] nodes = new int[statements.size()];
+			for (int i = 0; i < nodes.length; i++){
+				nodes[i] = statements.get(i).accept(this);
+			}
+			return list(nodes);
+		}
+
+		private int expression(Expr expr){
+			return expr.accept(this);
+		}
+
+		//statements carry no line of their own, nothing about them can fail
+		//
+		@Override
+		public Integer visitBlockStmt(Stmt.Block stmt){
+			int start = statements(stmt.statements);
+			return node(BLOCK, start, stmt.statements.size(), stmt.slotCount, 0);
+		}
+
+		@Override
+		public Integer visitExpressionStmt(Stmt.Expression stmt){
+			return node(EXPRESSION, expression(stmt.expression), 0, 0, 0);
+		}
+
+		@Override
+		public Integer visitPrintStmt(Stmt.Print stmt){
+			return node(PRINT, expression(stmt.expression), 0, 0, 0);
+		}
+
+		@Override
+		public Integer visitVarStmt(Stmt.Var stmt){
+			int initializer = stmt.initializer == null ? -1 : expression(stmt.initializer);
+			if (stmt.slot >= 0){
+				return node(VAR_LOCAL, stmt.slot, initializer, 0, stmt.name.line);
+			}
+			return node(VAR_GLOBAL, constant(stmt.name.symbol), initializer, 0, stmt.name.line);
+		}
+
+		//expressions
+		//
+		@Override
+		public Integer visitAssignExpr(Expr.Assign expr){
+			int value = expression(expr.value);
+			if (expr.depth >= 0){
+				return node(SET_LOCAL, expr.depth, expr.slot, value, expr.name.line);
+			}
+			return node(SET_GLOBAL, constant(expr.name.symbol), 0, value, expr.name.line);
+		}
+
+		@Override
+		public Integer visitBinaryExpr(Expr.Binary expr){
+			int left = expression(expr.left);
+			int right = expression(expr.right);
+
+			byte kind;
+			switch (expr.operator.type) {
+				case PLUS: kind = expr.numeric() ? ADD_NUMBERS : ADD; break;
+				case MINUS: kind = SUBTRACT; break;
+				case STAR: kind = MULTIPLY; break;
+				case SLASH: kind = DIVIDE; break;
+				case EQUAL_EQUAL: kind = EQUAL; break;
+				case BANG_EQUAL: kind = NOT_EQUAL; break;
+				case GREATER: kind = GREATER; break;
+				case GREATER_EQUAL: kind = GREATER_EQUAL; break;
+				case LESS: kind = LESS; break;
+				default: kind = LESS_EQUAL;
+			}
+			return node(kind, left, right, 0, expr.operator.line);
+		}
+
+		@Override
+		public Integer visitCallExpr(Expr.Call expr){
+			int[] nodes = new int[expr.arguments.size() + 1];
+			nodes[0] = expression(expr.callee);
+			for (int i = 1; i < nodes.length; i++){
+				nodes[i] = expression(expr.arguments.get(i - 1));
+			}
+			return node(CALL, list(nodes), nodes.length - 1, siteCount++, expr.paren.line);
+		}
+
+		//a grouping only ever changed how the source parsed, it isn't a node here
+		@Override
+		public Integer visitGroupingExpr(Expr.Grouping expr){
+			return expression(expr.expression);
+		}
+
+		@Override
+		public Integer visitLiteralExpr(Expr.Literal expr){
+			if (expr.value instanceof Double){
+				long bits = Double.doubleToRawLongBits((double)expr.value);
+				return node(NUMBER, (int)(bits >>> 32), (int)bits, constant(expr.value), 0);
+			}
+			return node(CONSTANT, constant(expr.value), 0, 0, 0);
+		}
+
+		@Override
+		public Integer visitUnaryExpr(Expr.Unary expr){
+			int right = expression(expr.right);
+			byte kind = expr.operator.type == TokenType.BANG ? NOT : NEGATE;
+			return node(kind, right, 0, 0, expr.operator.line);
+		}
+
+		@Override
+		public Integer visitVariableExpr(Expr.Variable expr){
+			if (expr.depth >= 0){
+				return node(GET_LOCAL, expr.depth, expr.slot, 0, expr.name.line);
+			}
+			return node(GET_GLOBAL, constant(expr.name.symbol), 0, 0, expr.name.line);
+		}
+	}
+}
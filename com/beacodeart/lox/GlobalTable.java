@@ -0,0 +1,79 @@
+package com.beacodeart.lox;
+
+/*
+ * GlobalTable
+ *
+ * the global variables of one interpreter, one Cell per name, kept in a SymbolMap so the table only
+ * holds the names its own scripts used
+ * a cell is made the first time a name is looked up and stays for the life of the table, defining
+ * a global again only writes its value, so a lookup site that has found a cell can keep it
+ *
+ * the tree walker caches the cell on the Expr.Variable/Expr.Assign node, the other engines keep
+ * it in the node or closure they build, after the first run a global read is one field load and
+ * a check that the variable has been defined
+ */
+class GlobalTable {
+	//value of a cell whose name has never been defined
+	private static final Object UNDEFINED = new Object();
+
+	static final class Cell {
+		//the table the cell belongs to, the ast is shared between interpreters (see Program)
+		//so a cached cell is only used by the table that made it
+		final GlobalTable table;
+		private Object value = UNDEFINED;
+
+		private Cell(GlobalTable table){
+			this.table = table;
+		}
+
+		Object get(Token name){
+			Object current = value;
+			if (current == UNDEFINED) throw new RuntimeError(name, "undefined variable " + name.lexeme + ".");
+			return current;
+		}
+
+		void assign(Token name, Object value){
+			if (this.value == UNDEFINED) throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+			this.value = value;
+		}
+
+		//the same for engines that keep a name and a line instead of the token, see FlatInterpreter
+		Object get(Symbol name, int line){
+			Object current = value;
+			if (current == UNDEFINED) throw new RuntimeError(line, "undefined variable " + name.name + ".");
+			return current;
+		}
+
+		void assign(Symbol name, int line, Object value){
+			if (this.value == UNDEFINED) throw new RuntimeError(line, "Undefined variable '" + name.name + "'.");
+			this.value = value;
+		}
+
+		void define(Object value){
+			this.value = value;
+		}
+	}
+
+	private final SymbolMap<Cell> cells = new SymbolMap<>();
+
+	Cell cell(Symbol name){
+		Cell cell = cells.get(name);
+		if (cell == null){
+			cell = new Cell(this);
+			cells.put(name, cell);
+		}
+		return cell;
+	}
+
+	Object get(Token name){
+		return cell(name.symbol).get(name);
+	}
+
+	void assign(Token name, Object value){
+		cell(name.symbol).assign(name, value);
+	}
+
+	void define(Symbol name, Object value){
+		cell(name).define(value);
+	}
+}
@@ -1,21 +1,44 @@
 package com.beacodeart.lox;
 
+import java.util.Arrays;
 import java.util.List;
 
 //our interpreter uses the visitor pattern
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-	private Environment environment = new Environment();	
+	//globals live in cells found by name, everything else was resolved to a slot
+	final GlobalTable globals = new GlobalTable();
+	private Environment environment = new Environment(null, 0);
+	//block environments for reuse, indexed by how many blocks deep they are
+	private Environment[] pool = new Environment[16];
+	private int depth = 0;
+	//where print statements go
+	private final OutputSink output;
+
+	Interpreter(){
+		this(new OutputSink.Console(System.out));
+	}
+
+	Interpreter(OutputSink output){
+		this.output = output;
+		Natives.define(globals);
+	}
+
 	//calls the entry point into the interpreter
 	void interpret (List<Stmt> statements){
 		try {
-			for (Stmt statement: statements){
-				execute(statement);
-			}
+			execute(statements);
 		} catch (RuntimeError error){
 			Lox.runtimeError(error);
 		}
 	}
 
+	//runs top level statements and leaves any RuntimeError to the caller
+	void execute(List<Stmt> statements){
+		for (Stmt statement: statements){
+			execute(statement);
+		}
+	}
+
 	//from the expression the accept method calls the appropriate visit method of this Interpreter class
 	private Object evaluate (Expr expr){
 		return expr.accept(this);
@@ -40,9 +63,35 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		}
 	}
 
+	//a block with no variables runs in the current environment
+	//otherwise it borrows the pooled environment for its nesting level, blocks only ever exit in the
+	//reverse order they were entered so one per level is enough. it is handed back in the finally
+	//whether the block finished or a RuntimeError went through it
 	@Override
 	public Void visitBlockStmt(Stmt.Block stmt){
-		executeBlock(stmt.statements, new Environment(environment));
+		if (stmt.slotCount == 0){
+			for (Stmt statement : stmt.statements){
+				execute(statement);
+			}
+			return null;
+		}
+
+		if (depth == pool.length) pool = Arrays.copyOf(pool, depth * 2);
+		Environment local = pool[depth];
+		if (local == null || local.capacity() < stmt.slotCount){
+			local = new Environment(environment, stmt.slotCount);
+			pool[depth] = local;
+		} else {
+			local.enclosing = environment;
+		}
+
+		depth++;
+		try {
+			executeBlock(stmt.statements, local);
+		} finally {
+			depth--;
+			local.clear(stmt.slotCount);
+		}
 		return null;
 	}
 
@@ -53,11 +102,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return null;
 	}
 
-	//for print the value returned from evaluate is printed to the standard output
+	//for print the value returned from evaluate is printed to the output sink
 	@Override
 	public Void visitPrintStmt(Stmt.Print stmt){
 		Object value = evaluate(stmt.expression);
-		System.out.println(stringify(value));
+		output.println(Values.stringify(value));
 		return null;
 	}
 
@@ -68,14 +117,24 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 			value = evaluate(stmt.initializer);
 		}
 
-		environment.define(stmt.name.lexeme, value);
+		if (stmt.slot >= 0){
+			environment.defineAt(stmt.slot, value);
+		} else {
+			stmt.cell = cell(stmt.name, stmt.cell);
+			stmt.cell.define(value);
+		}
 		return null;
 	}
 
 	@Override
 	public Object visitAssignExpr(Expr.Assign expr){
 		Object value = evaluate(expr.value);
-		environment.assign(expr.name, value);
+		if (expr.depth >= 0){
+			environment.assignAt(expr.depth, expr.slot, value);
+		} else {
+			expr.cell = cell(expr.name, expr.cell);
+			expr.cell.assign(expr.name, value);
+		}
 		return value;
 	}
 	
@@ -85,52 +144,141 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		//because a binary expression may consist of expression of expression type for its
 		//left and right operators these must be evaluated first
 		//prescendence is handles by parser so these are executed left to right
-		Object left = evaluate(expr.left);
-		Object right = evaluate(expr.right);
-
-		//because a binary expression may be arithmetic or comparison based all these need to be handled
-		//also because we can concatonate strings these need handled too
+		//
+		//number operands go through leftOperand/rightOperand which hand back primitive doubles
+		//so the only boxing is the final result, comparisons come back as cached Booleans
 		switch (expr.operator.type) {
-			case BANG_EQUAL: return !isEqual(left, right);
-			case EQUAL_EQUAL: return isEqual(left, right);
-			case GREATER:
-				checkNumberOperands(expr.operator, left, right);
-				return (double)left > (double)right;
-			case GREATER_EQUAL:
-				checkNumberOperands(expr.operator, left, right);
-				return (double)left >= (double)right;
-			case LESS:
-				checkNumberOperands(expr.operator, left, right);
-				return (double)left < (double)right;
-			case LESS_EQUAL:
-				checkNumberOperands(expr.operator, left, right);
-				return (double)left <= (double)right;
+			case BANG_EQUAL: return !equalOperands(expr);
+			case EQUAL_EQUAL: return equalOperands(expr);
+			case GREATER: return leftOperand(expr) > rightOperand(expr);
+			case GREATER_EQUAL: return leftOperand(expr) >= rightOperand(expr);
+			case LESS: return leftOperand(expr) < rightOperand(expr);
+			case LESS_EQUAL: return leftOperand(expr) <= rightOperand(expr);
 			case MINUS:
-				checkNumberOperands(expr.operator, left, right);
-				return (double)left - (double)right;
+			case SLASH:
+			case STAR:
+				return arithmetic(expr);
 			case PLUS:
+				if (expr.numeric()) return arithmetic(expr);
+
+				Object left = evaluate(expr.left);
+				Object right = evaluate(expr.right);
+
 				if (left instanceof Double && right instanceof Double){
 					return (double)left + (double)right;
 				}
  
-				if (left instanceof String && right instanceof String){
-					return (String)left + (String)right;
+				if (left instanceof CharSequence && right instanceof CharSequence){
+					return Rope.concat((CharSequence)left, (CharSequence)right);
 				}
 
 				throw new RuntimeError(expr.operator, 
 						"Operands must be two numbers or two strings.");
-			case SLASH:
-				checkNumberOperands(expr.operator, left, right);
-				return (double)left / (double)right;
-			case STAR:
-				checkNumberOperands(expr.operator, left, right);
-				return (double)left * (double)right;
-
 		}
 
 		return null;
 	}
+
+	//evaluates an expression the parser already knows is numeric without boxing anything along the way
+	private double evaluateNumber(Expr expr){
+		if (expr instanceof Expr.Binary) return arithmetic((Expr.Binary)expr);
+		if (expr instanceof Expr.Unary) return negate((Expr.Unary)expr);
+		if (expr instanceof Expr.Grouping) return evaluateNumber(((Expr.Grouping)expr).expression);
+		return (double)((Expr.Literal)expr).value;
+	}
+
+	//the four arithmetic operators once both sides are known to be numbers
+	//plus only ends up here when both its operands are numeric
+	private double arithmetic(Expr.Binary expr){
+		double left = leftOperand(expr);
+		double right = rightOperand(expr);
+
+		switch (expr.operator.type) {
+			case MINUS: return left - right;
+			case PLUS: return left + right;
+			case SLASH: return left / right;
+			default: return left * right;
+		}
+	}
+
+	//the left operand of an operator that needs two numbers
+	//if it isn't a number the right side still gets evaluated before the error, same order as always
+	private double leftOperand(Expr.Binary expr){
+		if (expr.left.numeric()) return evaluateNumber(expr.left);
+
+		Object left = evaluate(expr.left);
+		if (!(left instanceof Double)){
+			evaluate(expr.right);
+			throw new RuntimeError(expr.operator, "Operands must be numbers.");
+		}
+		return (double)left;
+	}
+
+	private double rightOperand(Expr.Binary expr){
+		if (expr.right.numeric()) return evaluateNumber(expr.right);
+
+		Object right = evaluate(expr.right);
+		if (!(right instanceof Double)){
+			throw new RuntimeError(expr.operator, "Operands must be numbers.");
+		}
+		return (double)right;
+	}
+
+	//two numeric sides compare unboxed, Double.compare agrees with Double.equals on NaN and -0
+	private boolean equalOperands(Expr.Binary expr){
+		if (expr.left.numeric() && expr.right.numeric()){
+			return Double.compare(evaluateNumber(expr.left), evaluateNumber(expr.right)) == 0;
+		}
+
+		Object left = evaluate(expr.left);
+		Object right = evaluate(expr.right);
+		return Values.isEqual(left, right);
+	}
+
+	private double negate(Expr.Unary expr){
+		if (expr.right.numeric()) return -evaluateNumber(expr.right);
+
+		Object right = evaluate(expr.right);
+		checkNumberOperand(expr.operator, right);
+		return -(double)right;
+	}
 	
+	//the callee and then the arguments left to right are evaluated before anything is checked
+	//up to three arguments are passed straight through, no list or array is made for them
+	@Override
+	public Object visitCallExpr(Expr.Call expr){
+		Object callee = evaluate(expr.callee);
+		List<Expr> arguments = expr.arguments;
+		int line = expr.paren.line;
+
+		switch (arguments.size()) {
+			case 0:
+				return function(expr, callee).call(line);
+			case 1: {
+				Object a = evaluate(arguments.get(0));
+				return function(expr, callee).call(line, a);
+			}
+			case 2: {
+				Object a = evaluate(arguments.get(0));
+				Object b = evaluate(arguments.get(1));
+				return function(expr, callee).call(line, a, b);
+			}
+			case 3: {
+				Object a = evaluate(arguments.get(0));
+				Object b = evaluate(arguments.get(1));
+				Object c = evaluate(arguments.get(2));
+				return function(expr, callee).call(line, a, b, c);
+			}
+			default: {
+				Object[] values = new Object[arguments.size()];
+				for (int i = 0; i < values.length; i++){
+					values[i] = evaluate(arguments.get(i));
+				}
+				return function(expr, callee).call(line, values);
+			}
+		}
+	}
+
 	//grouping just references evaluate
 	@Override
 	public Object visitGroupingExpr(Expr.Grouping expr){
@@ -148,14 +296,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	//cannot negate something that is not a number
 	@Override
 	public Object visitUnaryExpr(Expr.Unary expr){
-		Object right = evaluate(expr.right);
-
 		switch (expr.operator.type) {
 			case BANG:
-				return !isTruthy(right);
+				return !Values.isTruthy(evaluate(expr.right));
 			case MINUS:
-				checkNumberOperand(expr.operator, right);
-				return -(double)right;
+				return negate(expr);
 		}
 
 		return null;
@@ -163,52 +308,37 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 	@Override
 	public Object visitVariableExpr(Expr.Variable expr){
-		return environment.get(expr.name);
+		if (expr.depth >= 0){
+			return environment.getAt(expr.depth, expr.slot);
+		}
+
+		expr.cell = cell(expr.name, expr.cell);
+		return expr.cell.get(expr.name);
 	}
 
 	//helper methods
 	//
-	//if not a number errors out
-	private void checkNumberOperand(Token operator, Object operand){
-		if (operand instanceof Double) return;
-		throw new RuntimeError(operator, "Operand must be a number.");
-	}
-
-	//if one of two not a number errors out
-	private void checkNumberOperands(Token operator, Object left, Object right){
-		if (left instanceof Double && right instanceof Double) return;
-
-		throw new RuntimeError(operator, "Operands must be numbers.");
-	} 
-	
-	//evaluates truth
-	private boolean isTruthy( Object object){
-		if (object == null) return false;
-		if (object instanceof Boolean) return (boolean) object;
-		return true;
+	//the cell a global lookup site cached, as long as it belongs to this interpreter's globals
+	//the same tree can be run by several interpreters (see Program), each re-caches its own
+	private GlobalTable.Cell cell(Token name, GlobalTable.Cell cached){
+		if (cached != null && cached.table == globals) return cached;
+		return globals.cell(name.symbol);
 	}
 
-	//evaluates equality
-	private boolean isEqual(Object a, Object b){
-		if (a == null && b == null) return true;
-		if (a==null) return false;
-
-		return a.equals(b);
+	//the callee as a function, the arity is only checked when the call site sees a new callee
+	private NativeFunction function(Expr.Call expr, Object callee){
+		NativeFunction checked = expr.checked;
+		if (checked != null && callee == checked) return checked;
 
+		checked = NativeFunction.check(callee, expr.arguments.size(), expr.paren.line);
+		expr.checked = checked;
+		return checked;
 	}
 
-	private String stringify(Object object){
-		if (object == null) return "nil";
-
-		if (object instanceof Double){
-			String text = object.toString();
-			if (text.endsWith(".0")){
-				text = text.substring(0, text.length()-2);
-			}
-			return text;
-		}
-
-		return object.toString();
+	//if not a number errors out
+	private void checkNumberOperand(Token operator, Object operand){
+		if (operand instanceof Double) return;
+		throw new RuntimeError(operator, "Operand must be a number.");
 	}
 	
 }
@@ -0,0 +1,538 @@
+package com.beacodeart.lox;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.beacodeart.lox.jvm.JvmProgram;
+
+import static com.beacodeart.lox.ClassBuilder.*;
+
+/*
+ * JvmCompiler
+ *
+ * turns the parsed statements into a jvm class so hotspot can compile lox code like any other java
+ * the generated class lives in com.beacodeart.lox.jvm with the runtime it links against, the
+ * compiler sits here so the tree it walks can stay package private
+ *
+ * globals become static fields holding the JvmRuntime.Global cell for each name, looked up once
+ * when the program starts. locals declared in blocks become jvm local variables
+ * an expression the parser knows is numeric (see Expr.numeric) is compiled to primitive double
+ * arithmetic, anything else is an Object and the operator becomes a call to a JvmRuntime helper
+ * that does the type check and raises the same error as the Interpreter, with the line passed in
+ *
+ * the generated code has no branches. the top level statements are split across as many static
+ * methods as needed to stay under the jvm's method size limit, and run() calls them in order
+ */
+class JvmCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+	private static final String RUNTIME = "com/beacodeart/lox/jvm/JvmRuntime";
+	private static final String GLOBAL = "com/beacodeart/lox/jvm/JvmRuntime$Global";
+	private static final String CALL_SITE = "com/beacodeart/lox/jvm/JvmRuntime$CallSite";
+	private static final String PROGRAM = "com/beacodeart/lox/jvm/JvmProgram";
+	//the truthiness and equality rules every engine shares
+	private static final String VALUES = "com/beacodeart/lox/Values";
+	private static final String OBJECT = "java/lang/Object";
+	private static final String PART_DESCRIPTOR = "(L" + RUNTIME + ";)V";
+
+	//leave room for the calls run() makes, and so one statement's code can always be appended
+	private static final int MAX_PART_LENGTH = 60000;
+
+	//each program gets its own class name
+	private static int classCount = 0;
+
+	//a local variable, its jvm slot is its index in the locals list plus one, slot 0 is the runtime
+	private static class Local {
+		final String name;
+		final int depth;
+
+		Local(String name, int depth){
+			this.name = name;
+			this.depth = depth;
+		}
+	}
+
+	private final ClassBuilder builder = new ClassBuilder();
+	private String className;
+	//code being generated for the current top level statement
+	private Code code;
+	private final List<Local> locals = new ArrayList<>();
+	private int scopeDepth = 0;
+	//static fields already made for globals and for boxed number constants
+	private final Map<String, String> globalFields = new HashMap<>();
+	private final Map<Long, String> numberFields = new HashMap<>();
+	private int callSites = 0;
+	//code that fills in those fields when the program starts
+	private final List<Code> setup = new ArrayList<>();
+
+	/*
+	 * returns the loaded program, or null if it doesn't fit in a class file
+	 * (a single statement bigger than a method can hold, or too many constants)
+	 * in which case the caller should run it some other way
+	 */
+	JvmProgram compile(List<Stmt> statements){
+		className = "com/beacodeart/lox/jvm/LoxProgram" + nextClassNumber();
+
+		try {
+			List<Code> body = new ArrayList<>();
+			for (Stmt statement : statements){
+				code = new Code();
+				statement.accept(this);
+				body.add(code);
+			}
+
+			List<Code> segments = new ArrayList<>(setup);
+			segments.addAll(body);
+			if (!writeParts(segments) || builder.poolOverflowed()) return null;
+
+			byte[] bytes = builder.toByteArray(className, OBJECT, PROGRAM);
+			Class<?> programClass = new Loader(JvmProgram.class.getClassLoader())
+					.define(className.replace('/', '.'), bytes);
+			return (JvmProgram)programClass.getDeclaredConstructor().newInstance();
+		} catch (UncheckedIOException error){
+			//a string constant too long for the class file format
+			return null;
+		} catch (ReflectiveOperationException error){
+			throw new IllegalStateException("Could not load generated class.", error);
+		}
+	}
+
+	private static synchronized int nextClassNumber(){
+		return classCount++;
+	}
+
+	//packs the segments into static methods part0, part1, ... and writes run() and the constructor
+	private boolean writeParts(List<Code> segments){
+		int parts = 0;
+		Code part = new Code();
+		for (Code segment : segments){
+			if (segment.length() > MAX_PART_LENGTH) return false;
+
+			if (part.length() + segment.length() > MAX_PART_LENGTH){
+				part.op(RETURN, 0);
+				part.useLocals(1);
+				builder.method(ACC_PRIVATE | ACC_STATIC, "part" + parts++, PART_DESCRIPTOR, part);
+				part = new Code();
+			}
+			part.append(segment);
+		}
+		part.op(RETURN, 0);
+		part.useLocals(1);
+		builder.method(ACC_PRIVATE | ACC_STATIC, "part" + parts++, PART_DESCRIPTOR, part);
+
+		Code run = new Code();
+		run.useLocals(2);
+		for (int i = 0; i < parts; i++){
+			run.op(ALOAD_1, 1);
+			run.op(INVOKESTATIC, -1);
+			run.u2(builder.methodRef(className, "part" + i, PART_DESCRIPTOR));
+		}
+		run.op(RETURN, 0);
+		builder.method(ACC_PUBLIC, "run", PART_DESCRIPTOR, run);
+
+		Code constructor = new Code();
+		constructor.useLocals(1);
+		constructor.op(ALOAD_0, 1);
+		constructor.op(INVOKESPECIAL, -1);
+		constructor.u2(builder.methodRef(OBJECT, "<init>", "()V"));
+		constructor.op(RETURN, 0);
+		builder.method(ACC_PUBLIC, "<init>", "()V", constructor);
+		return true;
+	}
+
+	//statements
+	//
+	@Override
+	public Void visitBlockStmt(Stmt.Block stmt){
+		scopeDepth++;
+		for (Stmt statement : stmt.statements){
+			statement.accept(this);
+		}
+		scopeDepth--;
+
+		//the slots are simply reused by the next block
+		while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > scopeDepth){
+			locals.remove(locals.size() - 1);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitExpressionStmt(Stmt.Expression stmt){
+		//a numeric expression is never boxed if nothing uses its value
+		if (stmt.expression.numeric()){
+			number(stmt.expression);
+			code.op(POP2, -2);
+		} else {
+			object(stmt.expression);
+			code.op(POP, -1);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitPrintStmt(Stmt.Print stmt){
+		code.op(ALOAD_0, 1);
+		object(stmt.expression);
+		invoke(INVOKEVIRTUAL, RUNTIME, "print", "(Ljava/lang/Object;)V", -2);
+		return null;
+	}
+
+	@Override
+	public Void visitVarStmt(Stmt.Var stmt){
+		if (scopeDepth == 0){
+			code.op(GETSTATIC, 1);
+			code.u2(builder.fieldRef(className, globalField(stmt.name), "L" + GLOBAL + ";"));
+			initializer(stmt);
+			invoke(INVOKEVIRTUAL, GLOBAL, "define", "(Ljava/lang/Object;)V", -2);
+			return null;
+		}
+
+		//initializer first, so var a = a; reads whatever a meant before this declaration
+		initializer(stmt);
+
+		//redeclaring in the same block reuses the slot
+		int slot = resolveLocal(stmt.name.lexeme, scopeDepth);
+		if (slot < 0){
+			locals.add(new Local(stmt.name.lexeme, scopeDepth));
+			slot = locals.size();
+		}
+		code.local(ASTORE, slot, -1);
+		return null;
+	}
+
+	private void initializer(Stmt.Var stmt){
+		if (stmt.initializer == null){
+			code.op(ACONST_NULL, 1);
+		} else {
+			object(stmt.initializer);
+		}
+	}
+
+	//expressions, each visit leaves the value on the stack as an Object
+	//
+	private void object(Expr expr){
+		expr.accept(this);
+	}
+
+	@Override
+	public Void visitAssignExpr(Expr.Assign expr){
+		int slot = resolveLocal(expr.name.lexeme, 0);
+		if (slot >= 0){
+			object(expr.value);
+			code.op(DUP, 1);
+			code.local(ASTORE, slot, -1);
+			return null;
+		}
+
+		code.op(GETSTATIC, 1);
+		code.u2(builder.fieldRef(className, globalField(expr.name), "L" + GLOBAL + ";"));
+		object(expr.value);
+		line(expr.name);
+		invoke(INVOKEVIRTUAL, GLOBAL, "assign", "(Ljava/lang/Object;I)Ljava/lang/Object;", -2);
+		return null;
+	}
+
+	@Override
+	public Void visitBinaryExpr(Expr.Binary expr){
+		if (expr.numeric()){
+			number(expr);
+			box();
+			return null;
+		}
+
+		switch (expr.operator.type) {
+			case PLUS:
+				object(expr.left);
+				object(expr.right);
+				line(expr.operator);
+				invoke(INVOKESTATIC, RUNTIME, "add",
+						"(Ljava/lang/Object;Ljava/lang/Object;I)Ljava/lang/Object;", -2);
+				return null;
+			case BANG_EQUAL:
+				equality(expr);
+				code.op(ICONST_1, 1);
+				code.op(IXOR, -1);
+				break;
+			case EQUAL_EQUAL:
+				equality(expr);
+				break;
+			case GREATER: comparison(expr, "greater"); break;
+			case GREATER_EQUAL: comparison(expr, "greaterEqual"); break;
+			case LESS: comparison(expr, "less"); break;
+			case LESS_EQUAL: comparison(expr, "lessEqual"); break;
+			default: break;
+		}
+
+		invoke(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;", 0);
+		return null;
+	}
+
+	//leaves a boolean (as an int) on the stack
+	private void equality(Expr.Binary expr){
+		if (expr.left.numeric() && expr.right.numeric()){
+			number(expr.left);
+			number(expr.right);
+			invoke(INVOKESTATIC, RUNTIME, "isEqual", "(DD)Z", -3);
+			return;
+		}
+
+		object(expr.left);
+		object(expr.right);
+		invoke(INVOKESTATIC, VALUES, "isEqual", "(Ljava/lang/Object;Ljava/lang/Object;)Z", -1);
+	}
+
+	//leaves a boolean (as an int) on the stack
+	private void comparison(Expr.Binary expr, String helper){
+		if (expr.left.numeric() && expr.right.numeric()){
+			number(expr.left);
+			number(expr.right);
+			invoke(INVOKESTATIC, RUNTIME, helper, "(DD)Z", -3);
+			return;
+		}
+
+		object(expr.left);
+		object(expr.right);
+		line(expr.operator);
+		invoke(INVOKESTATIC, RUNTIME, helper, "(Ljava/lang/Object;Ljava/lang/Object;I)Z", -2);
+	}
+
+	//each call site is a JvmRuntime.CallSite in a static field, it keeps the arity check and the line
+	//up to three arguments are passed as parameters, more go in an array
+	@Override
+	public Void visitCallExpr(Expr.Call expr){
+		int count = expr.arguments.size();
+		code.op(GETSTATIC, 1);
+		code.u2(builder.fieldRef(className, callSiteField(count, expr.paren.line), "L" + CALL_SITE + ";"));
+		object(expr.callee);
+
+		if (count <= 3){
+			StringBuilder descriptor = new StringBuilder("(");
+			for (int i = 0; i <= count; i++){
+				descriptor.append("Ljava/lang/Object;");
+			}
+			for (Expr argument : expr.arguments){
+				object(argument);
+			}
+			invoke(INVOKEVIRTUAL, CALL_SITE, "call", descriptor + ")Ljava/lang/Object;", -(count + 1));
+			return null;
+		}
+
+		code.op(LDC_W, 1);
+		code.u2(builder.integer(count));
+		code.op(ANEWARRAY, 0);
+		code.u2(builder.classRef(OBJECT));
+		for (int i = 0; i < count; i++){
+			code.op(DUP, 1);
+			code.op(LDC_W, 1);
+			code.u2(builder.integer(i));
+			object(expr.arguments.get(i));
+			code.op(AASTORE, -3);
+		}
+		invoke(INVOKEVIRTUAL, CALL_SITE, "call", "(Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;", -2);
+		return null;
+	}
+
+	@Override
+	public Void visitGroupingExpr(Expr.Grouping expr){
+		object(expr.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitLiteralExpr(Expr.Literal expr){
+		if (expr.value == null){
+			code.op(ACONST_NULL, 1);
+		} else if (expr.value instanceof Boolean){
+			code.op(GETSTATIC, 1);
+			code.u2(builder.fieldRef("java/lang/Boolean", (boolean)expr.value ? "TRUE" : "FALSE",
+					"Ljava/lang/Boolean;"));
+		} else if (expr.value instanceof String){
+			code.op(LDC_W, 1);
+			code.u2(builder.string((String)expr.value));
+		} else {
+			//numbers are boxed once when the program starts and kept in a field
+			code.op(GETSTATIC, 1);
+			code.u2(builder.fieldRef(className, numberField((double)expr.value), "Ljava/lang/Object;"));
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitUnaryExpr(Expr.Unary expr){
+		if (expr.numeric()){
+			number(expr);
+			box();
+			return null;
+		}
+
+		object(expr.right);
+		invoke(INVOKESTATIC, VALUES, "isTruthy", "(Ljava/lang/Object;)Z", 0);
+		code.op(ICONST_1, 1);
+		code.op(IXOR, -1);
+		invoke(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;", 0);
+		return null;
+	}
+
+	@Override
+	public Void visitVariableExpr(Expr.Variable expr){
+		int slot = resolveLocal(expr.name.lexeme, 0);
+		if (slot >= 0){
+			code.local(ALOAD, slot, 1);
+			return null;
+		}
+
+		code.op(GETSTATIC, 1);
+		code.u2(builder.fieldRef(className, globalField(expr.name), "L" + GLOBAL + ";"));
+		line(expr.name);
+		invoke(INVOKEVIRTUAL, GLOBAL, "get", "(I)Ljava/lang/Object;", -1);
+		return null;
+	}
+
+	//numeric expressions leave a primitive double on the stack (two slots)
+	//only called for expressions where numeric() is true
+	private void number(Expr expr){
+		if (expr instanceof Expr.Literal){
+			code.op(LDC2_W, 2);
+			code.u2(builder.doubleConstant((double)((Expr.Literal)expr).value));
+		} else if (expr instanceof Expr.Grouping){
+			number(((Expr.Grouping)expr).expression);
+		} else if (expr instanceof Expr.Unary){
+			Expr.Unary unary = (Expr.Unary)expr;
+			if (unary.right.numeric()){
+				number(unary.right);
+				code.op(DNEG, 0);
+			} else {
+				object(unary.right);
+				line(unary.operator);
+				invoke(INVOKESTATIC, RUNTIME, "negate", "(Ljava/lang/Object;I)D", 0);
+			}
+		} else {
+			arithmetic((Expr.Binary)expr);
+		}
+	}
+
+	private void arithmetic(Expr.Binary expr){
+		String helper;
+		int opcode;
+		switch (expr.operator.type) {
+			case MINUS: helper = "subtract"; opcode = DSUB; break;
+			case SLASH: helper = "divide"; opcode = DDIV; break;
+			case STAR: helper = "multiply"; opcode = DMUL; break;
+			//plus is only numeric when both sides are
+			default: helper = null; opcode = DADD; break;
+		}
+
+		if (expr.left.numeric() && expr.right.numeric()){
+			number(expr.left);
+			number(expr.right);
+			code.op(opcode, -2);
+			return;
+		}
+
+		object(expr.left);
+		object(expr.right);
+		line(expr.operator);
+		invoke(INVOKESTATIC, RUNTIME, helper, "(Ljava/lang/Object;Ljava/lang/Object;I)D", -1);
+	}
+
+	//helper methods
+	//
+	private void box(){
+		invoke(INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;", -1);
+	}
+
+	private void line(Token token){
+		code.op(LDC_W, 1);
+		code.u2(builder.integer(token.line));
+	}
+
+	private void invoke(int opcode, String owner, String name, String descriptor, int stackEffect){
+		code.op(opcode, stackEffect);
+		code.u2(builder.methodRef(owner, name, descriptor));
+	}
+
+	//search the locals innermost first, ignoring any declared shallower than minDepth
+	//returns the jvm slot or -1 if it's a global
+	private int resolveLocal(String name, int minDepth){
+		for (int i = locals.size() - 1; i >= 0; i--){
+			Local local = locals.get(i);
+			if (local.depth < minDepth) break;
+			if (local.name.equals(name)) return i + 1;
+		}
+
+		return -1;
+	}
+
+	//static field holding the cell for a global, filled in from the runtime at startup
+	private String globalField(Token name){
+		String field = globalFields.get(name.lexeme);
+		if (field != null) return field;
+
+		field = "g" + globalFields.size();
+		globalFields.put(name.lexeme, field);
+		builder.field(ACC_PRIVATE | ACC_STATIC, field, "L" + GLOBAL + ";");
+
+		Code init = new Code();
+		init.op(ALOAD_0, 1);
+		init.op(LDC_W, 1);
+		init.u2(builder.string(name.lexeme));
+		init.op(INVOKEVIRTUAL, -1);
+		init.u2(builder.methodRef(RUNTIME, "global", "(Ljava/lang/String;)L" + GLOBAL + ";"));
+		init.op(PUTSTATIC, -1);
+		init.u2(builder.fieldRef(className, field, "L" + GLOBAL + ";"));
+		setup.add(init);
+		return field;
+	}
+
+	//static field holding a new call site, every call expression gets its own
+	private String callSiteField(int count, int line){
+		String field = "c" + callSites++;
+		builder.field(ACC_PRIVATE | ACC_STATIC, field, "L" + CALL_SITE + ";");
+
+		Code init = new Code();
+		init.op(LDC_W, 1);
+		init.u2(builder.integer(count));
+		init.op(LDC_W, 1);
+		init.u2(builder.integer(line));
+		init.op(INVOKESTATIC, -1);
+		init.u2(builder.methodRef(RUNTIME, "callSite", "(II)L" + CALL_SITE + ";"));
+		init.op(PUTSTATIC, -1);
+		init.u2(builder.fieldRef(className, field, "L" + CALL_SITE + ";"));
+		setup.add(init);
+		return field;
+	}
+
+	//static field holding a boxed number constant
+	private String numberField(double value){
+		long bits = Double.doubleToRawLongBits(value);
+		String field = numberFields.get(bits);
+		if (field != null) return field;
+
+		field = "k" + numberFields.size();
+		numberFields.put(bits, field);
+		builder.field(ACC_PRIVATE | ACC_STATIC, field, "Ljava/lang/Object;");
+
+		Code init = new Code();
+		init.op(LDC2_W, 2);
+		init.u2(builder.doubleConstant(value));
+		init.op(INVOKESTATIC, -1);
+		init.u2(builder.methodRef("java/lang/Double", "valueOf", "(D)Ljava/lang/Double;"));
+		init.op(PUTSTATIC, -1);
+		init.u2(builder.fieldRef(className, field, "Ljava/lang/Object;"));
+		setup.add(init);
+		return field;
+	}
+
+	//each program is defined by its own loader so the class can be unloaded once it's finished with
+	private static class Loader extends ClassLoader {
+		Loader(ClassLoader parent){
+			super(parent);
+		}
+
+		Class<?> define(String name, byte[] bytes){
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+}
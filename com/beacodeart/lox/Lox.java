@@ -2,12 +2,57 @@ package com.beacodeart.lox;
 
 import java.io.*;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import com.beacodeart.lox.jvm.JvmProgram;
+import com.beacodeart.lox.jvm.JvmRuntime;
+import com.beacodeart.lox.vm.Chunk;
+import com.beacodeart.lox.vm.VM;
+
 public class Lox {
-	private static final Interpreter interpreter = new Interpreter();
+	//size the buffered output builds up to before it is written out
+	private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+	//files at least this big are scanned straight from a mapping of the file and never cached,
+	//hashing and storing the tree of one costs about as much as scanning and parsing it again
+	private static final long MAPPED_FILE_SIZE = 16 * 1024 * 1024;
+	//every way of reading a script decodes it with the platform charset, whether it is cached, mapped,
+	//streamed or run by --batch. the byte scanner only knows utf-8, so a file is only mapped when
+	//that is what the platform charset is, otherwise it is read into a string like a cached one
+	static final Charset SOURCE_CHARSET = Charset.defaultCharset();
+	private static final boolean MAPPABLE = SOURCE_CHARSET.equals(StandardCharsets.UTF_8);
+
+	//print statements go through here, running a file buffers it, the prompt writes straight through
+	//set before any engine is created, see main
+	private static OutputSink output = new OutputSink.Console(System.out);
+	private static Interpreter interpreter = new Interpreter(output);
+	private static VM vm = new VM(output);
+	private static SpecializingInterpreter specializingInterpreter = new SpecializingInterpreter(output);
+	private static ClosureInterpreter closureInterpreter = new ClosureInterpreter(output);
+	private static JvmRuntime jvmRuntime = new JvmRuntime(output);
+	private static StackInterpreter stackInterpreter = new StackInterpreter(output);
+	private static FlatInterpreter flatInterpreter = new FlatInterpreter(output);
+	//set by --tokens, the scanned tokens are printed before the program runs, for debugging the scanner
+	//off by default, the listing is several times the size of the source
+	private static boolean printTokens = false;
+	//set by --profile, the tree walker is swapped for one that times every statement
+	private static boolean profile = false;
+
+	//which execution engine runs the parsed program, picked with a flag
+	private enum Engine { TREE, VM, SPECIALIZE, CLOSURE, JVM, STACK, FLAT }
+	private static Engine engine = Engine.TREE;
+	//set by --stream, files are scanned, parsed and run a statement at a time
+	private static boolean stream = false;
+	//set by --batch, every path is run in this one jvm, on jobs threads (--jobs=N, default one per core)
+	private static boolean batch = false;
+	private static int jobs = Runtime.getRuntime().availableProcessors();
+	//parsed files are kept here so running them again skips scanning and parsing, --no-cache turns it off
+	private static boolean cache = true;
 	static boolean hadError = false;
 	static boolean hadRuntimeError = false;
 
@@ -15,28 +60,140 @@ public class Lox {
 	* main takes in one or zero arguments if main is run with 0 arguments 
 	* the user can write code directly into the terminal that our interpreter will execute
 	* otherwise the the interpreter will run code from a provided source location
-	* if more than one arg is given we exit the program with code 64
+	* if more than one arg is given we exit the program with code 64, unless --batch is given
+	* flags starting with -- pick the execution engine and don't count as args
 	*/
 	public static void main(String[] args) throws IOException {
-		if (args.length > 1){
-			System.out.println("Useage: jlox [script]");
-			System.exit(64);
-		} else if (args.length ==1){
-			runFile(args[0]);
-		} else{
+		List<String> paths = new ArrayList<>();
+		for (String arg : args){
+			if (arg.equals("--vm")){
+				engine = Engine.VM;
+			} else if (arg.equals("--specialize")){
+				engine = Engine.SPECIALIZE;
+			} else if (arg.equals("--closure")){
+				engine = Engine.CLOSURE;
+			} else if (arg.equals("--jvm")){
+				engine = Engine.JVM;
+			} else if (arg.equals("--stack")){
+				engine = Engine.STACK;
+			} else if (arg.equals("--flat")){
+				engine = Engine.FLAT;
+			} else if (arg.equals("--stream")){
+				stream = true;
+			} else if (arg.equals("--tokens")){
+				printTokens = true;
+			} else if (arg.equals("--no-cache")){
+				cache = false;
+			} else if (arg.equals("--profile")){
+				profile = true;
+			} else if (arg.equals("--batch")){
+				batch = true;
+			} else if (arg.startsWith("--jobs=")){
+				jobs = parseJobs(arg.substring("--jobs=".length()));
+			} else if (arg.startsWith("--")){
+				usage();
+			} else {
+				paths.add(arg);
+			}
+		}
+
+		//batch scripts run as Programs, which always use the tree walker
+		if (batch){
+			if (paths.isEmpty() || engine != Engine.TREE || profile || stream) usage();
+			runBatch(paths);
+			return;
+		}
+
+		//profiling only knows how to wrap the tree walker
+		if (paths.size() > 1 || (profile && engine != Engine.TREE)){
+			usage();
+		}
+
+		if (paths.isEmpty()){
+			useOutput(new OutputSink.Console(System.out));
 			runPrompt();
+			report();
+			return;
+		}
+
+		useOutput(new OutputSink.Buffered(System.out, OUTPUT_BUFFER_SIZE));
+		try {
+			if (stream){
+				runStream(paths.get(0));
+			} else {
+				runFile(paths.get(0));
+			}
+		} finally {
+			//nothing buffered is lost if the run dies with an unexpected exception
+			output.flush();
+		}
+	}
+
+	//swap the output sink, the engines are recreated so they all print to it
+	static void useOutput(OutputSink sink){
+		output = sink;
+		interpreter = profile ? new ProfilingInterpreter(output) : new Interpreter(output);
+		vm = new VM(output);
+		specializingInterpreter = new SpecializingInterpreter(output);
+		closureInterpreter = new ClosureInterpreter(output);
+		jvmRuntime = new JvmRuntime(output);
+		stackInterpreter = new StackInterpreter(output);
+		flatInterpreter = new FlatInterpreter(output);
+	}
+
+	private static void usage(){
+		System.out.println("Useage: jlox [--vm | --specialize | --closure | --jvm | --stack | --flat | --profile] [--stream] [--no-cache] [--tokens] [script]");
+		System.out.println("       jlox --batch [--jobs=N] script or directory...");
+		System.exit(64);
+	}
+
+	private static int parseJobs(String value){
+		try {
+			int parsed = Integer.parseInt(value);
+			if (parsed > 0) return parsed;
+		} catch (NumberFormatException error){
+			//falls through to usage
 		}
+		usage();
+		return 0;
+	}
 
+	/*
+	 * runs every script, or every .lox file under a directory, in this jvm and exits with
+	 * the worst status any of them had
+	 */
+	private static void runBatch(List<String> paths) throws IOException {
+		List<Path> files = BatchRunner.collect(paths);
+		List<BatchRunner.Outcome> outcomes;
+		try {
+			outcomes = new BatchRunner(jobs).run(files);
+		} catch (InterruptedException error){
+			Thread.currentThread().interrupt();
+			return;
+		}
+
+		int status = BatchRunner.report(outcomes, System.out, System.err);
+		if (status != 0) System.exit(status);
 	}
 
 	/*
 	 * if given a file location will read the full file and convert it into a string 
 	 * that will then be passed to our default run method
-	 * 
+	 * without the cache, which is keyed by that string, the file is mapped and its utf-8 bytes
+	 * are scanned where they are instead, as long as utf-8 is what SOURCE_CHARSET would decode
 	 */
 	private static void runFile(String path) throws IOException {
-		byte[] bytes = Files.readAllBytes(Paths.get(path));
-		run(new String(bytes, Charset.defaultCharset()));
+		Path file = Paths.get(path);
+		//the cache reads and writes trees recursively, --stack is for trees too deep for that
+		boolean cached = cache && engine != Engine.STACK && Files.size(file) < MAPPED_FILE_SIZE;
+		if (cached || !MAPPABLE){
+			byte[] bytes = Files.readAllBytes(file);
+			run(new String(bytes, SOURCE_CHARSET), cached ? new AstCache(cacheDirectory()) : null);
+		} else {
+			run(new ByteScanner(ByteScanner.map(file)).scanCompact(), null, null);
+		}
+		output.flush();
+		report();
 
 		if (hadError) System.exit(65);
 		if (hadRuntimeError) System.exit(70);
@@ -66,47 +223,171 @@ public class Lox {
 	/*
 	 * takes in a string proveded by either runPrompt or runFile
 	 * which gets scanned and turned into tokens, tokens get turned into an
-	 * expression which gets interpreted to produce output
+	 * expression, constant parts of expressions are folded, the resolver works out where each local lives, and then it gets interpreted to produce output
 	 */
-	private static void run(String source) {
+	static void run(String source) {
+		run(source, null);
+	}
+
+	//a cache hit hands back the tree the scanner and parser would have made
+	private static void run(String source, AstCache cache) {
+		List<Stmt> cached = cache == null ? null : cache.load(source);
+		if (cached != null){
+			//entries don't keep the tokens, a source that parsed scans again without errors
+			if (printTokens) output.println(new Scanner(source).scanCompact().toString());
+			execute(cached);
+			return;
+		}
+
 		Scanner scanner = new Scanner(source);
-		List<Token> tokens = scanner.scanTokens();
+		run(scanner.scanCompact(), source, cache);
+	}
 
-		System.out.println(tokens);
+	//parses and runs scanned tokens, the source is only needed for storing them in the cache
+	private static void run(TokenBuffer tokens, String source, AstCache cache) {
+		if (printTokens) output.println(tokens.toString());
 				
 		Parser parser = new Parser(tokens);
+		if (engine == Engine.STACK) parser.useExplicitStacks();
 		List<Stmt> statements = parser.parse();
 
 		if (hadError) return;
 
+		//stored before execute, which folds and resolves, so the entry is exactly what was parsed
+		if (cache != null) cache.store(source, statements);
+
+		execute(statements);
+	}
+
+	//LOX_CACHE_DIR if set, otherwise a directory under the user's home
+	private static Path cacheDirectory(){
+		String configured = System.getenv("LOX_CACHE_DIR");
+		if (configured != null && !configured.isEmpty()) return Paths.get(configured);
+		return Paths.get(System.getProperty("user.home"), ".jlox", "cache");
+	}
+
+	/*
+	 * streaming version of runFile for inputs too big to hold in memory three times over
+	 * the scanner reads the file through a small window and the parser pulls tokens as it goes,
+	 * each declaration is run as soon as it has been parsed
+	 * a syntax error stops anything after it from running, but whatever came before has already run
+	 */
+	private static void runStream(String path) {
+		//bytes the charset can't decode are replaced, the same as new String does in runFile
+		try (Reader reader = new InputStreamReader(Files.newInputStream(Paths.get(path)), SOURCE_CHARSET)) {
+			Parser parser = new Parser(new Scanner(reader));
+			if (engine == Engine.STACK) parser.useExplicitStacks();
+
+			while (parser.hasNext() && !hadRuntimeError){
+				Stmt statement = parser.next();
+				if (hadError) continue;
+
+				execute(Collections.singletonList(statement));
+			}
+		} catch (IOException | UncheckedIOException error){
+			//the scanner reads as it goes, so a failure can turn up part way through
+			readError(path, error);
+		}
+		output.flush();
+		report();
+
+		if (hadError) System.exit(65);
+		if (hadRuntimeError) System.exit(70);
+	}
+
+	//prints the hot spot report to stderr when profiling
+	private static void report(){
+		if (interpreter instanceof ProfilingInterpreter){
+			((ProfilingInterpreter)interpreter).report(System.err);
+		}
+	}
+
+	//runs parsed statements on whichever engine was picked
+	private static void execute(List<Stmt> statements) {
+		//folding and resolving both recurse over the tree, the stack interpreter needs neither
+		if (engine == Engine.STACK){
+			stackInterpreter.interpret(statements);
+			return;
+		}
+
+		statements = new Optimizer().optimize(statements);
+
+		if (engine == Engine.VM){
+			Chunk chunk = new BytecodeCompiler().compile(statements);
+			if (hadError) return;
+
+			try {
+				vm.interpret(chunk);
+			} catch (RuntimeError error){
+				runtimeError(error);
+			}
+			return;
+		}
+
+		new Resolver().resolve(statements);
+
 		//System.out.println(new AstPrinter().print(statements));
 
-		interpreter.interpret(statements);
+		if (engine == Engine.JVM){
+			//programs too big for a class file are run by the tree walker instead
+			JvmProgram program = new JvmCompiler().compile(statements);
+			if (program == null){
+				interpreter.interpret(statements);
+				return;
+			}
+
+			try {
+				program.run(jvmRuntime);
+			} catch (RuntimeError error){
+				runtimeError(error);
+			}
+		} else if (engine == Engine.SPECIALIZE){
+			specializingInterpreter.interpret(statements);
+		} else if (engine == Engine.CLOSURE){
+			closureInterpreter.interpret(statements);
+		} else if (engine == Engine.FLAT){
+			flatInterpreter.interpret(FlatTree.encode(statements));
+		} else {
+			interpreter.interpret(statements);
+		}
 	}
 
 	//various error classes
 	
+	//syntax errors from the command line scanner and parser end up in report below
+	static final ErrorReporter REPORTER = Lox::report;
+
 	static void error(int line, String message){
-		report(line, "", message);
+		REPORTER.error(line, message);
 	}
 
+	//output is flushed before any diagnostic so stdout and stderr stay in order
 	private static void report(int line, String where, String message) {
-		System.err.println(
-				"[Line " + line + "] Error " + where + ": " + message);
+		output.flush();
+		System.err.println(ErrorReporter.format(line, where, message));
 		hadError = true;
 	}
 
 	static void error(Token token, String message){
-		if (token.type == TokenType.EOF) {
-			report(token.line, "at end", message);
-		} else {
-			report(token.line, " at '" + token.lexeme + "'", message);
-		}
+		REPORTER.error(token, message);
+	}
+
+	//a file that couldn't be read, whatever had already run keeps its output
+	private static void readError(String path, Exception error){
+		output.flush();
+		System.err.println(readErrorMessage(path, error));
+		System.exit(74);
+	}
+
+	//the same message for a file --batch couldn't read, see BatchRunner
+	static String readErrorMessage(Object path, Exception error){
+		Throwable cause = error instanceof UncheckedIOException ? error.getCause() : error;
+		return "Could not read " + path + ": " + cause;
 	}
 
 	static void runtimeError(RuntimeError error){
-		System.err.println(error.getMessage() +
-				"\n[line " + error.token.line + "]");
+		output.flush();
+		System.err.println(error.report());
 		hadRuntimeError = true;
 	}
 }
@@ -0,0 +1,68 @@
+package com.beacodeart.lox;
+
+/*
+ * NativeFunction
+ *
+ * a function written in java that lox code can call, see Natives for the ones every global
+ * table starts with. the arity is fixed, a call site checks it once against the callee it sees
+ * and only checks again if a different function turns up there
+ *
+ * arguments are handed over as plain parameters for up to three of them, so a call allocates
+ * nothing beyond what the function itself does. a native overrides the call method for its own
+ * arity, calls with more arguments go through the array form
+ * the line is only there for the native's own runtime errors
+ */
+public abstract class NativeFunction {
+	public final String name;
+	public final int arity;
+
+	protected NativeFunction(String name, int arity){
+		this.name = name;
+		this.arity = arity;
+	}
+
+	public Object call(int line){
+		return call(line, new Object[0]);
+	}
+
+	public Object call(int line, Object a){
+		return call(line, new Object[] {a});
+	}
+
+	public Object call(int line, Object a, Object b){
+		return call(line, new Object[] {a, b});
+	}
+
+	public Object call(int line, Object a, Object b, Object c){
+		return call(line, new Object[] {a, b, c});
+	}
+
+	public Object call(int line, Object[] arguments){
+		throw new IllegalStateException("Native " + name + " has no call for " + arguments.length + " arguments.");
+	}
+
+	//what a call site does the first time it sees a callee, or when the callee changes
+	//hands back the callee as a function once it is one and takes this many arguments
+	public static NativeFunction check(Object callee, int count, int line){
+		if (!(callee instanceof NativeFunction)){
+			throw new RuntimeError(line, "Can only call functions and classes.");
+		}
+
+		NativeFunction function = (NativeFunction)callee;
+		if (function.arity != count){
+			throw new RuntimeError(line, "Expected " + function.arity + " arguments but got " + count + ".");
+		}
+		return function;
+	}
+
+	//argument checking for natives that want numbers
+	protected static double number(Object value, int line){
+		if (value instanceof Double) return (double)value;
+		throw new RuntimeError(line, "Argument must be a number.");
+	}
+
+	@Override
+	public String toString(){
+		return "<native fn>";
+	}
+}
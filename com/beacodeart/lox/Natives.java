@@ -0,0 +1,76 @@
+package com.beacodeart.lox;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/*
+ * Natives
+ *
+ * the registry of native functions, every engine defines all of them as globals when it starts
+ * clock() and a few math functions ship here, an embedding application can register its own
+ * before creating Programs. registering is rare and reading happens once per interpreter, so the
+ * list is copy on write and safe to use from any thread
+ *
+ *   Natives.register(new NativeFunction("half", 1) {
+ *     public Object call(int line, Object a){ return number(a, line) / 2; }
+ *   });
+ */
+public final class Natives {
+	private static final List<NativeFunction> REGISTRY = new CopyOnWriteArrayList<>();
+
+	static {
+		//seconds as a double, only differences between two calls mean anything
+		register(new NativeFunction("clock", 0) {
+			@Override
+			public Object call(int line){
+				return System.nanoTime() / 1e9;
+			}
+		});
+
+		register(unary("sqrt", Math::sqrt));
+		register(unary("abs", Math::abs));
+		register(unary("floor", Math::floor));
+		register(unary("ceil", Math::ceil));
+		register(binary("pow", Math::pow));
+		register(binary("min", Math::min));
+		register(binary("max", Math::max));
+	}
+
+	private Natives() {}
+
+	//a later registration with the same name wins, it is defined after the earlier one
+	public static void register(NativeFunction function){
+		REGISTRY.add(function);
+	}
+
+	public static List<NativeFunction> all(){
+		return REGISTRY;
+	}
+
+	//defines every native in a fresh global table
+	static void define(GlobalTable globals){
+		for (NativeFunction function : REGISTRY){
+			globals.define(Symbol.intern(function.name), function);
+		}
+	}
+
+	private static NativeFunction unary(String name, DoubleUnaryOperator body){
+		return new NativeFunction(name, 1) {
+			@Override
+			public Object call(int line, Object a){
+				return body.applyAsDouble(number(a, line));
+			}
+		};
+	}
+
+	private static NativeFunction binary(String name, DoubleBinaryOperator body){
+		return new NativeFunction(name, 2) {
+			@Override
+			public Object call(int line, Object a, Object b){
+				return body.applyAsDouble(number(a, line), number(b, line));
+			}
+		};
+	}
+}
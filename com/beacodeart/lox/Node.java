@@ -0,0 +1,666 @@
+package com.beacodeart.lox;
+
+/*
+ * Node
+ *
+ * executable tree run by the SpecializingInterpreter, built once from the resolved Stmt/Expr tree
+ *
+ * binary and unary operator nodes start out uninitialized. the first time one runs it looks at the
+ * types of its operands and replaces itself in its parent with a node that only handles those types,
+ * number add, string concat, number less and so on. if a specialized node later sees anything else
+ * it rewrites itself again into the generic node, which handles every case and raises every error
+ * so each operator site settles on a small method that does one thing instead of the big switch
+ */
+abstract class Node {
+	//the node holding this one, needed so a node can swap itself out
+	Node parent;
+
+	abstract Object execute(Environment environment);
+
+	//take ownership of a child so it knows who to ask when it wants replacing
+	<T extends Node> T adopt(T child){
+		if (child != null) child.parent = this;
+		return child;
+	}
+
+	//put the new node in this node's place in the tree
+	<T extends Node> T replace(T node){
+		parent.replaceChild(this, node);
+		node.parent = parent;
+		return node;
+	}
+
+	//only nodes with rewritable children override this
+	void replaceChild(Node oldChild, Node newChild){
+		throw new IllegalStateException("Node has no replaceable children.");
+	}
+
+	//statements
+	//
+	static class Block extends Node {
+		Block(Node[] statements, int slotCount) {
+			this.statements = statements;
+			this.slotCount = slotCount;
+			for (Node statement : statements){
+				adopt(statement);
+			}
+		}
+
+		//no variables, no scope of its own
+		//otherwise the block reuses one environment every time it runs, nothing can enter a block
+		//while it is already running, and it is cleared on the way out like Interpreter's pooled ones
+		@Override
+		Object execute(Environment environment) {
+			if (slotCount == 0){
+				for (Node statement : statements){
+					statement.execute(environment);
+				}
+				return null;
+			}
+
+			if (local == null) local = new Environment(environment, slotCount);
+			local.enclosing = environment;
+			try {
+				for (Node statement : statements){
+					statement.execute(local);
+				}
+			} finally {
+				local.clear(slotCount);
+			}
+			return null;
+		}
+
+		private final Node[] statements;
+		private final int slotCount;
+		private Environment local;
+	}
+
+	static class Print extends Node {
+		Print(OutputSink output, Node expression) {
+			this.output = output;
+			this.expression = adopt(expression);
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			output.println(Values.stringify(expression.execute(environment)));
+			return null;
+		}
+
+		@Override
+		void replaceChild(Node oldChild, Node newChild) {
+			expression = newChild;
+		}
+
+		private final OutputSink output;
+		private Node expression;
+	}
+
+	static class Expression extends Node {
+		Expression(Node expression) {
+			this.expression = adopt(expression);
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			expression.execute(environment);
+			return null;
+		}
+
+		@Override
+		void replaceChild(Node oldChild, Node newChild) {
+			expression = newChild;
+		}
+
+		private Node expression;
+	}
+
+	//var declaration, slot -1 means it goes in the globals
+	static class Define extends Node {
+		Define(GlobalTable globals, Token name, int slot, Node initializer) {
+			this.globals = globals;
+			this.name = name;
+			this.slot = slot;
+			this.initializer = adopt(initializer);
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			Object value = initializer == null ? null : initializer.execute(environment);
+			if (slot >= 0){
+				environment.defineAt(slot, value);
+			} else {
+				if (cell == null) cell = globals.cell(name.symbol);
+				cell.define(value);
+			}
+			return null;
+		}
+
+		@Override
+		void replaceChild(Node oldChild, Node newChild) {
+			initializer = newChild;
+		}
+
+		private final GlobalTable globals;
+		private final Token name;
+		private final int slot;
+		private Node initializer;
+		//found on first run
+		private GlobalTable.Cell cell;
+	}
+
+	//variables
+	//
+	static class Literal extends Node {
+		Literal(Object value) {
+			this.value = value;
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			return value;
+		}
+
+		private final Object value;
+	}
+
+	static class ReadLocal extends Node {
+		ReadLocal(int depth, int slot) {
+			this.depth = depth;
+			this.slot = slot;
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			return environment.getAt(depth, slot);
+		}
+
+		private final int depth;
+		private final int slot;
+	}
+
+	static class ReadGlobal extends Node {
+		ReadGlobal(GlobalTable globals, Token name) {
+			this.globals = globals;
+			this.name = name;
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			if (cell == null) cell = globals.cell(name.symbol);
+			return cell.get(name);
+		}
+
+		private final GlobalTable globals;
+		private final Token name;
+		//found on first run
+		private GlobalTable.Cell cell;
+	}
+
+	static class WriteLocal extends Node {
+		WriteLocal(int depth, int slot, Node value) {
+			this.depth = depth;
+			this.slot = slot;
+			this.value = adopt(value);
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			Object result = value.execute(environment);
+			environment.assignAt(depth, slot, result);
+			return result;
+		}
+
+		@Override
+		void replaceChild(Node oldChild, Node newChild) {
+			value = newChild;
+		}
+
+		private final int depth;
+		private final int slot;
+		private Node value;
+	}
+
+	static class WriteGlobal extends Node {
+		WriteGlobal(GlobalTable globals, Token name, Node value) {
+			this.globals = globals;
+			this.name = name;
+			this.value = adopt(value);
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			Object result = value.execute(environment);
+			if (cell == null) cell = globals.cell(name.symbol);
+			cell.assign(name, result);
+			return result;
+		}
+
+		@Override
+		void replaceChild(Node oldChild, Node newChild) {
+			value = newChild;
+		}
+
+		private final GlobalTable globals;
+		private final Token name;
+		private Node value;
+		//found on first run
+		private GlobalTable.Cell cell;
+	}
+
+	//calls
+	//
+	static class Call extends Node {
+		Call(Node callee, int line, Node[] arguments) {
+			this.callee = adopt(callee);
+			this.line = line;
+			this.arguments = arguments;
+			for (Node argument : arguments){
+				adopt(argument);
+			}
+		}
+
+		//same order and argument passing as Interpreter.visitCallExpr
+		@Override
+		Object execute(Environment environment) {
+			Object function = callee.execute(environment);
+			switch (arguments.length) {
+				case 0:
+					return function(function).call(line);
+				case 1: {
+					Object a = arguments[0].execute(environment);
+					return function(function).call(line, a);
+				}
+				case 2: {
+					Object a = arguments[0].execute(environment);
+					Object b = arguments[1].execute(environment);
+					return function(function).call(line, a, b);
+				}
+				case 3: {
+					Object a = arguments[0].execute(environment);
+					Object b = arguments[1].execute(environment);
+					Object c = arguments[2].execute(environment);
+					return function(function).call(line, a, b, c);
+				}
+				default: {
+					Object[] values = new Object[arguments.length];
+					for (int i = 0; i < values.length; i++){
+						values[i] = arguments[i].execute(environment);
+					}
+					return function(function).call(line, values);
+				}
+			}
+		}
+
+		//the arity is only checked when a different function turns up
+		private NativeFunction function(Object function) {
+			if (checked != null && function == checked) return checked;
+			checked = NativeFunction.check(function, arguments.length, line);
+			return checked;
+		}
+
+		@Override
+		void replaceChild(Node oldChild, Node newChild) {
+			if (callee == oldChild){
+				callee = newChild;
+				return;
+			}
+			for (int i = 0; i < arguments.length; i++){
+				if (arguments[i] == oldChild) arguments[i] = newChild;
+			}
+		}
+
+		private Node callee;
+		private final int line;
+		private final Node[] arguments;
+		//the last function this call site checked
+		private NativeFunction checked;
+	}
+
+	//binary operators
+	//
+	//children are run here, subclasses only decide what to do with the two values
+	abstract static class Binary extends Node {
+		Binary(Node left, Token operator, Node right) {
+			this.left = adopt(left);
+			this.operator = operator;
+			this.right = adopt(right);
+		}
+
+		@Override
+		final Object execute(Environment environment) {
+			Object leftValue = left.execute(environment);
+			Object rightValue = right.execute(environment);
+			return apply(leftValue, rightValue);
+		}
+
+		abstract Object apply(Object left, Object right);
+
+		//operands didn't match this node's specialization, stop guessing and go generic
+		Object generalize(Object leftValue, Object rightValue) {
+			return replace(new GenericBinary(left, operator, right)).apply(leftValue, rightValue);
+		}
+
+		@Override
+		void replaceChild(Node oldChild, Node newChild) {
+			if (left == oldChild) left = newChild;
+			if (right == oldChild) right = newChild;
+		}
+
+		Node left;
+		final Token operator;
+		Node right;
+	}
+
+	//first execution picks the specialization from the operand types it sees
+	static class UninitializedBinary extends Binary {
+		UninitializedBinary(Node left, Token operator, Node right) {
+			super(left, operator, right);
+		}
+
+		@Override
+		Object apply(Object leftValue, Object rightValue) {
+			return replace(specialize(leftValue, rightValue)).apply(leftValue, rightValue);
+		}
+
+		private Binary specialize(Object leftValue, Object rightValue) {
+			boolean numbers = leftValue instanceof Double && rightValue instanceof Double;
+
+			switch (operator.type) {
+				case BANG_EQUAL: return new NotEqual(left, operator, right);
+				case EQUAL_EQUAL: return new Equal(left, operator, right);
+				case PLUS:
+					if (numbers) return new NumberAdd(left, operator, right);
+					if (leftValue instanceof CharSequence && rightValue instanceof CharSequence){
+						return new StringConcat(left, operator, right);
+					}
+					break;
+				case MINUS: if (numbers) return new NumberSubtract(left, operator, right); break;
+				case STAR: if (numbers) return new NumberMultiply(left, operator, right); break;
+				case SLASH: if (numbers) return new NumberDivide(left, operator, right); break;
+				case GREATER: if (numbers) return new NumberGreater(left, operator, right); break;
+				case GREATER_EQUAL: if (numbers) return new NumberGreaterEqual(left, operator, right); break;
+				case LESS: if (numbers) return new NumberLess(left, operator, right); break;
+				case LESS_EQUAL: if (numbers) return new NumberLessEqual(left, operator, right); break;
+				default: break;
+			}
+
+			return new GenericBinary(left, operator, right);
+		}
+	}
+
+	static class NumberAdd extends Binary {
+		NumberAdd(Node left, Token operator, Node right) {
+			super(left, operator, right);
+		}
+
+		@Override
+		Object apply(Object leftValue, Object rightValue) {
+			if (leftValue instanceof Double && rightValue instanceof Double){
+				return (double)leftValue + (double)rightValue;
+			}
+			return generalize(leftValue, rightValue);
+		}
+	}
+
+	static class StringConcat extends Binary {
+		StringConcat(Node left, Token operator, Node right) {
+			super(left, operator, right);
+		}
+
+		@Override
+		Object apply(Object leftValue, Object rightValue) {
+			if (leftValue instanceof CharSequence && rightValue instanceof CharSequence){
+				return Rope.concat((CharSequence)leftValue, (CharSequence)rightValue);
+			}
+			return generalize(leftValue, rightValue);
+		}
+	}
+
+	static class NumberSubtract extends Binary {
+		NumberSubtract(Node left, Token operator, Node right) {
+			super(left, operator, right);
+		}
+
+		@Override
+		Object apply(Object leftValue, Object rightValue) {
+			if (leftValue instanceof Double && rightValue instanceof Double){
+				return (double)leftValue - (double)rightValue;
+			}
+			return generalize(leftValue, rightValue);
+		}
+	}
+
+	static class NumberMultiply extends Binary {
+		NumberMultiply(Node left, Token operator, Node right) {
+			super(left, operator, right);
+		}
+
+		@Override
+		Object apply(Object leftValue, Object rightValue) {
+			if (leftValue instanceof Double && rightValue instanceof Double){
+				return (double)leftValue * (double)rightValue;
+			}
+			return generalize(leftValue, rightValue);
+		}
+	}
+
+	static class NumberDivide extends Binary {
+		NumberDivide(Node left, Token operator, Node right) {
+			super(left, operator, right);
+		}
+
+		@Override
+		Object apply(Object leftValue, Object rightValue) {
+			if (leftValue instanceof Double && rightValue instanceof Double){
+				return (double)leftValue / (double)rightValue;
+			}
+			return generalize(leftValue, rightValue);
+		}
+	}
+
+	static class NumberGreater extends Binary {
+		NumberGreater(Node left, Token operator, Node right) {
+			super(left, operator, right);
+		}
+
+		@Override
+		Object apply(Object leftValue, Object rightValue) {
+			if (leftValue instanceof Double && rightValue instanceof Double){
+				return (double)leftValue > (double)rightValue;
+			}
+			return generalize(leftValue, rightValue);
+		}
+	}
+
+	static class NumberGreaterEqual extends Binary {
+		NumberGreaterEqual(Node left, Token operator, Node right) {
+			super(left, operator, right);
+		}
+
+		@Override
+		Object apply(Object leftValue, Object rightValue) {
+			if (leftValue instanceof Double && rightValue instanceof Double){
+				return (double)leftValue >= (double)rightValue;
+			}
+			return generalize(leftValue, rightValue);
+		}
+	}
+
+	static class NumberLess extends Binary {
+		NumberLess(Node left, Token operator, Node right) {
+			super(left, operator, right);
+		}
+
+		@Override
+		Object apply(Object leftValue, Object rightValue) {
+			if (leftValue instanceof Double && rightValue instanceof Double){
+				return (double)leftValue < (double)rightValue;
+			}
+			return generalize(leftValue, rightValue);
+		}
+	}
+
+	static class NumberLessEqual extends Binary {
+		NumberLessEqual(Node left, Token operator, Node right) {
+			super(left, operator, right);
+		}
+
+		@Override
+		Object apply(Object leftValue, Object rightValue) {
+			if (leftValue instanceof Double && rightValue instanceof Double){
+				return (double)leftValue <= (double)rightValue;
+			}
+			return generalize(leftValue, rightValue);
+		}
+	}
+
+	//equality works on any two values so there is nothing to specialize on
+	static class Equal extends Binary {
+		Equal(Node left, Token operator, Node right) {
+			super(left, operator, right);
+		}
+
+		@Override
+		Object apply(Object leftValue, Object rightValue) {
+			return Values.isEqual(leftValue, rightValue);
+		}
+	}
+
+	static class NotEqual extends Binary {
+		NotEqual(Node left, Token operator, Node right) {
+			super(left, operator, right);
+		}
+
+		@Override
+		Object apply(Object leftValue, Object rightValue) {
+			return !Values.isEqual(leftValue, rightValue);
+		}
+	}
+
+	//handles everything, same checks and messages as Interpreter.visitBinaryExpr
+	static class GenericBinary extends Binary {
+		GenericBinary(Node left, Token operator, Node right) {
+			super(left, operator, right);
+		}
+
+		@Override
+		Object apply(Object leftValue, Object rightValue) {
+			switch (operator.type) {
+				case BANG_EQUAL: return !Values.isEqual(leftValue, rightValue);
+				case EQUAL_EQUAL: return Values.isEqual(leftValue, rightValue);
+				case PLUS:
+					if (leftValue instanceof Double && rightValue instanceof Double){
+						return (double)leftValue + (double)rightValue;
+					}
+
+					if (leftValue instanceof CharSequence && rightValue instanceof CharSequence){
+						return Rope.concat((CharSequence)leftValue, (CharSequence)rightValue);
+					}
+
+					throw new RuntimeError(operator,
+							"Operands must be two numbers or two strings.");
+				default:
+					break;
+			}
+
+			if (!(leftValue instanceof Double && rightValue instanceof Double)){
+				throw new RuntimeError(operator, "Operands must be numbers.");
+			}
+
+			double left = (double)leftValue;
+			double right = (double)rightValue;
+			switch (operator.type) {
+				case GREATER: return left > right;
+				case GREATER_EQUAL: return left >= right;
+				case LESS: return left < right;
+				case LESS_EQUAL: return left <= right;
+				case MINUS: return left - right;
+				case SLASH: return left / right;
+				case STAR: return left * right;
+				default: return null;
+			}
+		}
+	}
+
+	//unary operators
+	//
+	abstract static class Unary extends Node {
+		Unary(Token operator, Node right) {
+			this.operator = operator;
+			this.right = adopt(right);
+		}
+
+		@Override
+		final Object execute(Environment environment) {
+			return apply(right.execute(environment));
+		}
+
+		abstract Object apply(Object value);
+
+		@Override
+		void replaceChild(Node oldChild, Node newChild) {
+			right = newChild;
+		}
+
+		final Token operator;
+		Node right;
+	}
+
+	static class UninitializedUnary extends Unary {
+		UninitializedUnary(Token operator, Node right) {
+			super(operator, right);
+		}
+
+		@Override
+		Object apply(Object value) {
+			Unary specialized;
+			if (operator.type == TokenType.BANG){
+				specialized = new Not(operator, right);
+			} else if (value instanceof Double){
+				specialized = new NumberNegate(operator, right);
+			} else {
+				specialized = new GenericNegate(operator, right);
+			}
+
+			return replace(specialized).apply(value);
+		}
+	}
+
+	static class Not extends Unary {
+		Not(Token operator, Node right) {
+			super(operator, right);
+		}
+
+		@Override
+		Object apply(Object value) {
+			return !Values.isTruthy(value);
+		}
+	}
+
+	static class NumberNegate extends Unary {
+		NumberNegate(Token operator, Node right) {
+			super(operator, right);
+		}
+
+		@Override
+		Object apply(Object value) {
+			if (value instanceof Double) return -(double)value;
+			return replace(new GenericNegate(operator, right)).apply(value);
+		}
+	}
+
+	static class GenericNegate extends Unary {
+		GenericNegate(Token operator, Node right) {
+			super(operator, right);
+		}
+
+		@Override
+		Object apply(Object value) {
+			if (!(value instanceof Double)){
+				throw new RuntimeError(operator, "Operand must be a number.");
+			}
+			return -(double)value;
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package com.beacodeart.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Optimizer
+ *
+ * constant folding pass that runs straight after the parser
+ * any binary or unary expression whose operands are all literals gets evaluated once here
+ * and replaced with a single literal, so 9+3*6 reaches the interpreter as 27
+ * groupings are dropped entirely, by now the shape of the tree already encodes the precedence
+ *
+ * folding is done by handing the node to a scratch Interpreter, so the result is exactly what
+ * running it would have given. if that raises a RuntimeError ("a" - 1) the node is left alone
+ * and the error still happens at runtime with its original line
+ *
+ * nodes are only rebuilt when something under them changed
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+	//only ever sees literal operands, never touches an environment
+	private final Interpreter folder = new Interpreter();
+
+	List<Stmt> optimize(List<Stmt> statements){
+		List<Stmt> optimized = new ArrayList<>(statements.size());
+		for (Stmt statement : statements){
+			optimized.add(optimize(statement));
+		}
+
+		return optimized;
+	}
+
+	private Stmt optimize(Stmt stmt){
+		return stmt.accept(this);
+	}
+
+	private Expr optimize(Expr expr){
+		return expr.accept(this);
+	}
+
+	//evaluate a node whose operands are all literals, or hand it back untouched if that would error
+	private Expr fold(Expr expr){
+		try {
+			Object value = expr.accept(folder);
+			//folded strings become plain Strings, a Rope is only for the run that built it
+			if (value instanceof Rope) value = value.toString();
+			return new Expr.Literal(value);
+		} catch (RuntimeError error){
+			return expr;
+		}
+	}
+
+	@Override
+	public Stmt visitBlockStmt(Stmt.Block stmt){
+		return new Stmt.Block(optimize(stmt.statements));
+	}
+
+	@Override
+	public Stmt visitExpressionStmt(Stmt.Expression stmt){
+		Expr expression = optimize(stmt.expression);
+		if (expression == stmt.expression) return stmt;
+		return new Stmt.Expression(expression, stmt.line);
+	}
+
+	@Override
+	public Stmt visitPrintStmt(Stmt.Print stmt){
+		Expr expression = optimize(stmt.expression);
+		if (expression == stmt.expression) return stmt;
+		return new Stmt.Print(expression, stmt.line);
+	}
+
+	@Override
+	public Stmt visitVarStmt(Stmt.Var stmt){
+		if (stmt.initializer == null) return stmt;
+
+		Expr initializer = optimize(stmt.initializer);
+		if (initializer == stmt.initializer) return stmt;
+		return new Stmt.Var(stmt.name, initializer);
+	}
+
+	@Override
+	public Expr visitAssignExpr(Expr.Assign expr){
+		Expr value = optimize(expr.value);
+		if (value == expr.value) return expr;
+		return new Expr.Assign(expr.name, value);
+	}
+
+	@Override
+	public Expr visitBinaryExpr(Expr.Binary expr){
+		Expr left = optimize(expr.left);
+		Expr right = optimize(expr.right);
+
+		Expr.Binary binary = expr;
+		if (left != expr.left || right != expr.right){
+			binary = new Expr.Binary(left, expr.operator, right);
+		}
+
+		if (left instanceof Expr.Literal && right instanceof Expr.Literal){
+			return fold(binary);
+		}
+
+		return binary;
+	}
+
+	//calls are never folded, the callee is only known at runtime and clock() differs every time
+	//the arguments are still folded
+	@Override
+	public Expr visitCallExpr(Expr.Call expr){
+		Expr callee = optimize(expr.callee);
+		boolean changed = callee != expr.callee;
+
+		List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+		for (Expr argument : expr.arguments){
+			Expr optimized = optimize(argument);
+			changed |= optimized != argument;
+			arguments.add(optimized);
+		}
+
+		if (!changed) return expr;
+		return new Expr.Call(callee, expr.paren, arguments);
+	}
+
+	//the parentheses have done their job once the tree is built
+	@Override
+	public Expr visitGroupingExpr(Expr.Grouping expr){
+		return optimize(expr.expression);
+	}
+
+	@Override
+	public Expr visitLiteralExpr(Expr.Literal expr){
+		return expr;
+	}
+
+	@Override
+	public Expr visitUnaryExpr(Expr.Unary expr){
+		Expr right = optimize(expr.right);
+
+		Expr.Unary unary = expr;
+		if (right != expr.right){
+			unary = new Expr.Unary(expr.operator, right);
+		}
+
+		if (right instanceof Expr.Literal){
+			return fold(unary);
+		}
+
+		return unary;
+	}
+
+	@Override
+	public Expr visitVariableExpr(Expr.Variable expr){
+		return expr;
+	}
+}
@@ -0,0 +1,87 @@
+package com.beacodeart.lox;
+
+import java.io.PrintStream;
+
+/*
+ * OutputSink
+ *
+ * where print statements send their text
+ * the engines hold one of these instead of calling System.out themselves, so output can be
+ * buffered up or captured. Lox flushes it before reporting any error so stdout and the
+ * diagnostics on stderr still come out in the order they happened
+ */
+public interface OutputSink {
+	void println(String text);
+
+	//push out anything held back
+	void flush();
+
+	//straight through to a stream, one write per print, what the interpreter always did
+	class Console implements OutputSink {
+		private final PrintStream out;
+
+		public Console(PrintStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void println(String text) {
+			out.println(text);
+		}
+
+		@Override
+		public void flush() {
+			out.flush();
+		}
+	}
+
+	//collects output and only writes to the stream once threshold characters have built up
+	class Buffered implements OutputSink {
+		private final PrintStream out;
+		private final int threshold;
+		private final StringBuilder buffer;
+
+		public Buffered(PrintStream out, int threshold) {
+			this.out = out;
+			this.threshold = threshold;
+			this.buffer = new StringBuilder(threshold + 256);
+		}
+
+		@Override
+		public void println(String text) {
+			buffer.append(text).append(System.lineSeparator());
+			if (buffer.length() >= threshold) flush();
+		}
+
+		@Override
+		public void flush() {
+			if (buffer.length() > 0) {
+				out.print(buffer);
+				buffer.setLength(0);
+			}
+			out.flush();
+		}
+	}
+
+	//keeps everything in memory, for embedders that want the output as a string
+	class Memory implements OutputSink {
+		private final StringBuilder buffer = new StringBuilder();
+
+		@Override
+		public void println(String text) {
+			buffer.append(text).append('\n');
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		public String contents() {
+			return buffer.toString();
+		}
+
+		public void clear() {
+			buffer.setLength(0);
+		}
+	}
+}
@@ -1,28 +1,135 @@
 package com.beacodeart.lox;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.Supplier;
 
 import static com.beacodeart.lox.TokenType.*;
 
 /**
  * Parser
  * 
- * recursive decent parser
- * which means that the series of tokens is evaluated in order of presedence, with
- * each type of expression calling the next higher presedence operation first
- * then evaluating it's own state
+ * recursive decent parser for statements
+ * expressions are parsed by precedence climbing (a pratt parser) instead of one method per
+ * precedence level, so a primary is reached in one call rather than through every level above it
+ * and an operator's precedence is a lookup in a table indexed by its TokenType
+ *
+ * tokens are pulled one at a time, the parser only ever looks at the current token and the
+ * one before it, so it can be fed straight from a streaming Scanner as well as from a list
+ * or a compact TokenBuffer, in which case most tokens never become Token objects at all
  */
 class Parser {
 	//error handling
 	private static class ParseError extends RuntimeException {}
+
+	//operator precedence, lowest first
+	private static final int NONE = 0;
+	private static final int ASSIGNMENT = 1;
+	private static final int EQUALITY = 2;
+	private static final int COMPARISON = 3;
+	private static final int TERM = 4;
+	private static final int FACTOR = 5;
+	private static final int UNARY = 6;
+	private static final int CALL = 7;
+
+	//how tightly each token binds when it follows an expression, indexed by TokenType ordinal
+	//NONE for every token that can't continue an expression, which ends it
+	private static final int[] PRECEDENCE = new int[TokenType.values().length];
+
+	static {
+		PRECEDENCE[EQUAL.ordinal()] = ASSIGNMENT;
+		PRECEDENCE[BANG_EQUAL.ordinal()] = EQUALITY;
+		PRECEDENCE[EQUAL_EQUAL.ordinal()] = EQUALITY;
+		PRECEDENCE[GREATER.ordinal()] = COMPARISON;
+		PRECEDENCE[GREATER_EQUAL.ordinal()] = COMPARISON;
+		PRECEDENCE[LESS.ordinal()] = COMPARISON;
+		PRECEDENCE[LESS_EQUAL.ordinal()] = COMPARISON;
+		PRECEDENCE[MINUS.ordinal()] = TERM;
+		PRECEDENCE[PLUS.ordinal()] = TERM;
+		PRECEDENCE[SLASH.ordinal()] = FACTOR;
+		PRECEDENCE[STAR.ordinal()] = FACTOR;
+		PRECEDENCE[LEFT_PAREN.ordinal()] = CALL;
+	}
 	//input
-	private final List<Token> tokens;
-	//current list position
-	private int current = 0;
+	private final TokenCursor tokens;
+	//where syntax errors go
+	private final ErrorReporter reporter;
+	//set by useExplicitStacks
+	private boolean explicitStacks = false;
 
 	public Parser(List<Token> tokens) {
+		this(new StreamCursor(tokens.iterator()::next), Lox.REPORTER);
+	}
+
+	//pulls tokens from the scanner as it needs them
+	public Parser(Scanner scanner) {
+		this(new StreamCursor(scanner::next), Lox.REPORTER);
+	}
+
+	//reads the compact token store directly
+	Parser(TokenBuffer tokens) {
+		this(tokens, Lox.REPORTER);
+	}
+
+	Parser(TokenBuffer tokens, ErrorReporter reporter) {
+		this(tokens.cursor(), reporter);
+	}
+
+	private Parser(TokenCursor tokens, ErrorReporter reporter) {
 		this.tokens = tokens;
+		this.reporter = reporter;
+	}
+
+	//parse nested blocks and expressions with explicit stacks on the heap instead of recursion
+	//so nesting is only limited by memory, for machine generated scripts. builds the same trees
+	//and reports the same errors, a little slower
+	Parser useExplicitStacks() {
+		explicitStacks = true;
+		return this;
+	}
+
+	//cursor over Token objects that already exist, keeps the current and previous one
+	private static class StreamCursor implements TokenCursor {
+		private final Supplier<Token> source;
+		private Token current;
+		private Token previous;
+
+		StreamCursor(Supplier<Token> source) {
+			this.source = source;
+			this.current = source.get();
+		}
+
+		@Override
+		public TokenType type() {
+			return current.type;
+		}
+
+		@Override
+		public int line() {
+			return current.line;
+		}
+
+		@Override
+		public void advance() {
+			previous = current;
+			current = source.get();
+		}
+
+		@Override
+		public Token current() {
+			return current;
+		}
+
+		@Override
+		public Token previous() {
+			return previous;
+		}
+
+		@Override
+		public Object previousLiteral() {
+			return previous.literal;
+		}
 	}
 
 	//entry point into our parser
@@ -30,15 +137,26 @@ class Parser {
 	List<Stmt> parse(){
 		List<Stmt> statements = new ArrayList<>();
 		while (!isAtEnd()){
-			statements.add((declaration()));
+			statements.add(explicitStacks ? declarationWithoutRecursion() : declaration());
 		}
 
 		return statements;
 	}
 
-	//for now expressions just returns equality
+	//streaming entry point, lets the caller run each declaration before the next one is parsed
+	boolean hasNext(){
+		return !isAtEnd();
+	}
+
+	//null if the declaration had a syntax error, same as the entries parse() returns
+	Stmt next(){
+		return explicitStacks ? declarationWithoutRecursion() : declaration();
+	}
+
+	//an expression is anything down to and including assignment
 	private Expr expression(){
-		return assignment();
+		if (explicitStacks) return expressionWithoutRecursion();
+		return parsePrecedence(ASSIGNMENT);
 	}
 
 	//declaration recognise var then return variable or return statement
@@ -55,24 +173,27 @@ class Parser {
 
 	//for now only 2 types of statement, print statements and expression statements
 	private Stmt statement(){
-		if (match(PRINT)) return printStatement();
+		int line = tokens.line();
+		if (match(PRINT)) return printStatement(line);
 		if (match(LEFT_BRACE)) return new Stmt.Block(block());
 
-		return expressionStatement();
+		return expressionStatement(line);
 	}
 
 	//both our statements take in an expression and the difference is how they are interpreted
 	//statements are separated by semicolons
-	private Stmt printStatement(){
+	//the line is where the statement starts, taken before folding can leave it without any token
+	private Stmt printStatement(int line){
 		Expr value = expression();
 		consume(SEMICOLON, "Expect ';' after value.");
-		return new Stmt.Print(value);
+		return new Stmt.Print(value, line);
 	}
 
 	//assign or initialise variable
 	private Stmt varDeclaration(){
 		//after var we need a name for that variable
-		Token name = consume(IDENTIFIER, "Expect variable name");
+		consume(IDENTIFIER, "Expect variable name");
+		Token name = previous();
 
 		//then we need an assignment operator and we assign expression to that variable
 		Expr initializer = null;
@@ -85,10 +206,10 @@ class Parser {
 		return new Stmt.Var(name, initializer);
 	}
 
-	private Stmt expressionStatement(){
+	private Stmt expressionStatement(int line){
 		Expr value = expression();
 		consume(SEMICOLON, "Expect ';' after value.");
-		return new Stmt.Expression(value);
+		return new Stmt.Expression(value, line);
 	}
 
 	private List<Stmt> block(){
@@ -102,85 +223,269 @@ class Parser {
 		return statements;
 	}
 
-	private Expr assignment(){
-		Expr expr = equality();
+	//parses an expression whose operators all bind at least as tightly as the given precedence
+	//the prefix part is a unary operator or a primary, then each operator whose precedence is high
+	//enough is folded into the expression so far. binary operators parse their right side one level
+	//up so they stay left associative, assignment parses its value at its own level so it is right
+	//associative, the same trees the one method per level descent built
+	private Expr parsePrecedence(int precedence){
+		Expr expr = prefix();
 
-		if (match(EQUAL)){
-			Token equals = previous();
-			Expr value = assignment();
+		for (;;) {
+			TokenType type = tokens.type();
+			int infix = PRECEDENCE[type.ordinal()];
+			if (infix < precedence) return expr;
 
-			if (expr instanceof Expr.Variable){
-				Token name = ((Expr.Variable)expr).name;
-				return new Expr.Assign(name, value);
+			advance();
+			switch (type) {
+				case EQUAL:
+					expr = assignment(expr, previous());
+					break;
+				case LEFT_PAREN:
+					expr = finishCall(expr);
+					break;
+				default: {
+					Token operator = previous();
+					Expr right = parsePrecedence(infix + 1);
+					expr = new Expr.Binary(expr, operator, right);
+				}
 			}
-
-			error(equals, "Invalid assigment target");
 		}
+	}
 
-		return expr;
+	//the target has already been parsed as an expression, only a variable can be assigned to
+	private Expr assignment(Expr expr, Token equals){
+		return assigned(expr, equals, parsePrecedence(ASSIGNMENT));
 	}
-	
-	//evaluates equality operations
-	private Expr equality(){
-		Expr expr = comparison();
 
-		while (match(BANG_EQUAL, EQUAL_EQUAL)){
-			Token operator = previous();
-			Expr right = comparison ();
-			expr = new Expr.Binary(expr, operator, right);
+	private Expr assigned(Expr expr, Token equals, Expr value){
+		if (expr instanceof Expr.Variable){
+			Token name = ((Expr.Variable)expr).name;
+			return new Expr.Assign(name, value);
 		}
 
+		error(equals, "Invalid assigment target");
 		return expr;
 	}
 
-	// evaluates comparison operations
-	private Expr comparison(){
-		Expr expr = term();
-
-		while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)){
+	//not or negate, the operand binds as tightly as a call so -f(x) negates the result
+	private Expr prefix(){
+		TokenType type = tokens.type();
+		if (type == BANG || type == MINUS){
+			advance();
 			Token operator = previous();
-			Expr right = term();
-			expr = new Expr.Binary(expr, operator, right);
+			Expr right = parsePrecedence(UNARY);
+			return new Expr.Unary(operator, right);
 		}
 
-		return expr;
+		return primary();
 	}
 
-	//evaluates addition and subtraction 
-	private Expr term(){
-		Expr expr = factor();
+	//explicit stack parsing, see useExplicitStacks
+	//
+	//one top level declaration. the blocks opened inside it and not closed yet are kept in a list
+	//each statement is added to the innermost one, or returned once no block is open
+	//errors recover the same way declaration() and block() do, a statement that fails becomes null
+	//in the block around it, and a block that is never closed becomes null in the block around that
+	private Stmt declarationWithoutRecursion(){
+		List<List<Stmt>> open = new ArrayList<>();
+
+		for (;;) {
+			Stmt statement;
+			if (!open.isEmpty() && (check(RIGHT_BRACE) || isAtEnd())){
+				List<Stmt> statements = open.remove(open.size() - 1);
+				try {
+					consume(RIGHT_BRACE, "Expect '}' after block.");
+					statement = new Stmt.Block(statements);
+				} catch (ParseError error){
+					synchronize();
+					statement = null;
+				}
+			} else {
+				try {
+					if (match(LEFT_BRACE)){
+						open.add(new ArrayList<>());
+						continue;
+					}
+
+					int line = tokens.line();
+					if (match(VAR)){
+						statement = varDeclaration();
+					} else if (match(PRINT)){
+						statement = printStatement(line);
+					} else {
+						statement = expressionStatement(line);
+					}
+				} catch (ParseError error){
+					synchronize();
+					statement = null;
+				}
+			}
 
-		while (match(MINUS, PLUS)){
-			Token operator = previous();
-			Expr right = factor();
-			expr = new Expr.Binary(expr, operator, right);
+			if (open.isEmpty()) return statement;
+			open.get(open.size() - 1).add(statement);
 		}
+	}
 
-		return expr;
+	//what the expression being parsed for a Frame will become part of
+	private static final int OPERAND_OF_UNARY = 0;
+	private static final int GROUPED = 1;
+	private static final int RIGHT_OF_BINARY = 2;
+	private static final int ASSIGNED_VALUE = 3;
+	private static final int ARGUMENT = 4;
+
+	//one parsePrecedence call that is waiting on a sub expression
+	private static final class Frame {
+		int precedence;
+		int waiting;
+		//the expression so far, and the operator or '=' the sub expression belongs to
+		Expr expr;
+		Token token;
+		//the arguments of a call being parsed
+		List<Expr> arguments;
 	}
 
-	//evaluates division and multiplication
-	private Expr factor(){
-		Expr expr = unary();
+	//reused from one expression to the next, only grows
+	private Frame[] frames = new Frame[16];
+	private int frameCount = 0;
 
-		while (match(SLASH, STAR)) {
-			Token operator = previous();
-			Expr right = unary();
-			expr = new Expr.Binary(expr, operator, right);
+	//parsePrecedence with its recursion turned into frames. result is the sub expression that just
+	//finished, handed to the frame below to finish the node it was waiting on, null when the top
+	//frame still needs its prefix. every token is consumed in the same order as the recursive version
+	private Expr expressionWithoutRecursion(){
+		int base = frameCount;
+		try {
+			pushFrame(ASSIGNMENT);
+			Expr result = null;
+
+			frames:
+			for (;;) {
+				Frame frame = frames[frameCount - 1];
+
+				if (result == null){
+					TokenType type = tokens.type();
+					if (type == BANG || type == MINUS){
+						advance();
+						frame.waiting = OPERAND_OF_UNARY;
+						frame.token = previous();
+						pushFrame(UNARY);
+						continue;
+					}
+					if (type == LEFT_PAREN){
+						advance();
+						frame.waiting = GROUPED;
+						pushFrame(ASSIGNMENT);
+						continue;
+					}
+					frame.expr = primary();
+				} else {
+					switch (frame.waiting) {
+						case OPERAND_OF_UNARY:
+							frame.expr = new Expr.Unary(frame.token, result);
+							break;
+						case GROUPED:
+							consume(RIGHT_PAREN, "expect ')' after expression");
+							frame.expr = new Expr.Grouping(result);
+							break;
+						case RIGHT_OF_BINARY:
+							frame.expr = new Expr.Binary(frame.expr, frame.token, result);
+							break;
+						case ASSIGNED_VALUE:
+							frame.expr = assigned(frame.expr, frame.token, result);
+							break;
+						default:
+							frame.arguments.add(result);
+							if (match(COMMA)){
+								if (frame.arguments.size() >= 255){
+									error(peek(), "Can't have more than 255 arguments.");
+								}
+								result = null;
+								pushFrame(ASSIGNMENT);
+								continue;
+							}
+							consume(RIGHT_PAREN, "Expect ')' after arguments.");
+							frame.expr = new Expr.Call(frame.expr, previous(), frame.arguments);
+							frame.arguments = null;
+					}
+					result = null;
+				}
+
+				//the infix loop of parsePrecedence
+				for (;;) {
+					TokenType type = tokens.type();
+					int infix = PRECEDENCE[type.ordinal()];
+					if (infix < frame.precedence){
+						result = frame.expr;
+						frame.expr = null;
+						frame.token = null;
+						frameCount--;
+						if (frameCount == base) return result;
+						continue frames;
+					}
+
+					advance();
+					if (type == EQUAL){
+						frame.waiting = ASSIGNED_VALUE;
+						frame.token = previous();
+						pushFrame(ASSIGNMENT);
+						continue frames;
+					}
+					if (type == LEFT_PAREN){
+						List<Expr> arguments = new ArrayList<>();
+						if (check(RIGHT_PAREN)){
+							advance();
+							frame.expr = new Expr.Call(frame.expr, previous(), arguments);
+							continue;
+						}
+						frame.waiting = ARGUMENT;
+						frame.arguments = arguments;
+						pushFrame(ASSIGNMENT);
+						continue frames;
+					}
+
+					frame.waiting = RIGHT_OF_BINARY;
+					frame.token = previous();
+					pushFrame(infix + 1);
+					continue frames;
+				}
+			}
+		} finally {
+			//a syntax error leaves frames behind, they are dropped with whatever they held
+			while (frameCount > base){
+				Frame frame = frames[--frameCount];
+				frame.expr = null;
+				frame.token = null;
+				frame.arguments = null;
+			}
 		}
+	}
 
-		return expr;
+	private void pushFrame(int precedence){
+		if (frameCount == frames.length) frames = Arrays.copyOf(frames, frameCount * 2);
+
+		Frame frame = frames[frameCount];
+		if (frame == null){
+			frame = new Frame();
+			frames[frameCount] = frame;
+		}
+		frame.precedence = precedence;
+		frameCount++;
 	}
 
-	//evaluates not eqaul or minus number
-	private Expr unary(){
-		if (match(BANG, MINUS)){
-			Token operator = previous();
-			Expr right = unary();
-			return new Expr.Unary(operator, right);
+	//the arguments after the open paren, too many is reported but parsing carries on
+	private Expr finishCall(Expr callee){
+		List<Expr> arguments = new ArrayList<>();
+		if (!check(RIGHT_PAREN)){
+			do {
+				if (arguments.size() >= 255){
+					error(peek(), "Can't have more than 255 arguments.");
+				}
+				arguments.add(expression());
+			} while (match(COMMA));
 		}
 
-		return primary();
+		consume(RIGHT_PAREN, "Expect ')' after arguments.");
+		return new Expr.Call(callee, previous(), arguments);
 	}
 	
 	//evaluates key words and literal expression
@@ -189,8 +494,8 @@ class Parser {
 		if (match(TRUE)) return new Expr.Literal(true);
 		if (match(NIL)) return new Expr.Literal(null);
 
-		if (match(NUMBER, STRING)){
-			return new Expr.Literal(previous().literal);
+		if (match(NUMBER) || match(STRING)){
+			return new Expr.Literal(tokens.previousLiteral());
 		}
 
 		if (match(IDENTIFIER)){
@@ -209,20 +514,23 @@ class Parser {
 	//Helper functions
 	//
 	//boolean current tokeb matches given token
-	private boolean match(TokenType... types){
-		for (TokenType type: types){
-			if (check(type)) {
-				advance();
-				return true;
-			}
+	//takes one type, a varargs list would allocate an array on every call
+	private boolean match(TokenType type){
+		if (check(type)) {
+			advance();
+			return true;
 		}
 
 		return false;
 	}
 
 	// if current tolen matches current token advances
-	private Token consume(TokenType type, String  message){
-		if (check(type)) return advance();
+	// use previous() afterwards if the token itself is needed
+	private void consume(TokenType type, String  message){
+		if (check(type)) {
+			advance();
+			return;
+		}
 
 		throw error(peek(), message);
 	}
@@ -230,33 +538,32 @@ class Parser {
 	//if current token equals passed in tooken true
 	private boolean check(TokenType type){
 		if (isAtEnd()) return false;
-		return peek().type == type;
+		return tokens.type() == type;
 	}
 	
-	//advances tokeen then returns the previous token, which was the current token when the function was called
-	private Token advance(){
-		if (!isAtEnd()) current++;
-		return previous();
+	//advances tokeen, the token that was current is now previous()
+	private void advance(){
+		if (!isAtEnd()) tokens.advance();
 	}
 	
 	//tells us if we are at the end of the file
 	private boolean isAtEnd(){
-		return peek().type == EOF;
+		return tokens.type() == EOF;
 	}
 
 	//looks at teh current token
 	private Token peek(){
-		return tokens.get(current);
+		return tokens.current();
 	}
 	
 	//gets the previous token
 	private Token previous() {
-		return tokens.get(current -1);
+		return tokens.previous();
 	}
 	
 	//throws error
 	private ParseError error(Token token, String message){
-		Lox.error(token, message);
+		reporter.error(token, message);
 		return new ParseError();
 	}
 	
@@ -267,7 +574,7 @@ class Parser {
 		while(!isAtEnd()){
 			if (previous().type == SEMICOLON) return;
 
-			switch (peek().type){
+			switch (tokens.type()){
 				case CLASS:
 				case FUN:
 				case VAR:
@@ -0,0 +1,106 @@
+package com.beacodeart.lox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * ProfilingInterpreter
+ *
+ * the interpreter used for --profile
+ * overrides the statement visit methods to count and time each statement before handing it to the
+ * normal implementation, since execute calls accept(this) the statements inside blocks come back
+ * through here too. the plain Interpreter has no profiling code in it at all
+ *
+ * times are inclusive wall time, blocks aren't timed themselves so their statements aren't counted twice
+ * each statement is reported under the line it starts on, which the parser records on print and
+ * expression statements since folding can leave them holding nothing but a literal
+ */
+class ProfilingInterpreter extends Interpreter {
+	//running totals for one statement
+	private static class Entry {
+		final int line;
+		long count = 0;
+		long nanos = 0;
+
+		Entry(int line){
+			this.line = line;
+		}
+	}
+
+	//keyed on the statement object itself, the line is only worked out the first time it runs
+	private final Map<Stmt, Entry> entries = new IdentityHashMap<>();
+
+	ProfilingInterpreter(OutputSink output){
+		super(output);
+	}
+
+	@Override
+	public Void visitExpressionStmt(Stmt.Expression stmt){
+		long start = System.nanoTime();
+		try {
+			return super.visitExpressionStmt(stmt);
+		} finally {
+			record(stmt, start);
+		}
+	}
+
+	@Override
+	public Void visitPrintStmt(Stmt.Print stmt){
+		long start = System.nanoTime();
+		try {
+			return super.visitPrintStmt(stmt);
+		} finally {
+			record(stmt, start);
+		}
+	}
+
+	@Override
+	public Void visitVarStmt(Stmt.Var stmt){
+		long start = System.nanoTime();
+		try {
+			return super.visitVarStmt(stmt);
+		} finally {
+			record(stmt, start);
+		}
+	}
+
+	private void record(Stmt stmt, long start){
+		long elapsed = System.nanoTime() - start;
+		Entry entry = entries.get(stmt);
+		if (entry == null){
+			entry = new Entry(line(stmt));
+			entries.put(stmt, entry);
+		}
+		entry.count++;
+		entry.nanos += elapsed;
+	}
+
+	//hot spot report, one row per source line, most total time first
+	void report(PrintStream out){
+		Map<Integer, Entry> byLine = new TreeMap<>();
+		for (Entry entry : entries.values()){
+			Entry total = byLine.computeIfAbsent(entry.line, Entry::new);
+			total.count += entry.count;
+			total.nanos += entry.nanos;
+		}
+
+		List<Entry> rows = new ArrayList<>(byLine.values());
+		rows.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+
+		out.printf("%-8s %12s %14s %12s%n", "line", "count", "total ms", "avg us");
+		for (Entry row : rows){
+			out.printf("%-8d %12d %14.3f %12.3f%n", row.line, row.count, row.nanos / 1e6, row.nanos / 1e3 / row.count);
+		}
+	}
+
+	//blocks are never recorded, see the top of the file
+	private static int line(Stmt stmt){
+		if (stmt instanceof Stmt.Var) return ((Stmt.Var)stmt).name.line;
+		if (stmt instanceof Stmt.Print) return ((Stmt.Print)stmt).line;
+		return ((Stmt.Expression)stmt).line;
+	}
+}
@@ -0,0 +1,146 @@
+package com.beacodeart.lox;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Program
+ *
+ * embedding api, for running lox scripts from inside another java application
+ * a Program is compiled once and can then be run any number of times, from any number of threads
+ * at once. every run gets its own Interpreter, globals and output, nothing is shared with other
+ * runs or with the command line Lox, so one tenant's script can't see or break another's
+ *
+ * compiling scans, parses, folds and resolves up front. the resolver is the last thing to write
+ * to the tree that matters, and it is published through a final field so every thread sees it fully
+ * resolved. the only writes after that are the global cells an Interpreter caches on the nodes,
+ * which each interpreter checks belong to its own globals before using
+ *
+ *   Program program = Program.compile("print 1 + 2;");
+ *   Program.Result result = program.run();
+ *   result.output  // "3\n"
+ */
+public final class Program {
+	private static final String TOO_DEEP = "Script is nested too deeply";
+
+	private final List<Stmt> statements;
+	private final List<String> errors;
+
+	private Program(List<Stmt> statements, List<String> errors){
+		this.statements = statements;
+		this.errors = errors;
+	}
+
+	//what one run produced
+	public static final class Result {
+		//everything printed, null if the run printed to a sink the caller passed in
+		public final String output;
+		//the runtime error or syntax errors in the same format the command line prints, null if none
+		public final String error;
+
+		Result(String output, String error){
+			this.output = output;
+			this.error = error;
+		}
+
+		public boolean succeeded(){
+			return error == null;
+		}
+	}
+
+	//never throws for a bad script, syntax errors are collected and show up in errors()
+	//so does a script nested too deeply for the parser, optimizer or resolver, which all recurse
+	public static Program compile(String source){
+		List<String> errors = new ArrayList<>();
+		ErrorReporter reporter = (line, where, message) -> errors.add(ErrorReporter.format(line, where, message));
+
+		try {
+			TokenBuffer tokens = new Scanner(source, reporter).scanCompact();
+			List<Stmt> statements = new Parser(tokens, reporter).parse();
+			if (errors.isEmpty()){
+				statements = new Optimizer().optimize(statements);
+				new Resolver().resolve(statements);
+				return new Program(Collections.unmodifiableList(statements), Collections.emptyList());
+			}
+		} catch (StackOverflowError error){
+			errors.add(TOO_DEEP + " to compile.");
+		}
+
+		return new Program(Collections.emptyList(), Collections.unmodifiableList(errors));
+	}
+
+	public List<String> errors(){
+		return errors;
+	}
+
+	public boolean hasErrors(){
+		return !errors.isEmpty();
+	}
+
+	//runs with the output collected into the result
+	public Result run(){
+		OutputSink.Memory output = new OutputSink.Memory();
+		Result result = run(output);
+		return new Result(output.contents(), result.error);
+	}
+
+	//runs with print statements going to the given sink, which only this run should be using
+	public Result run(OutputSink output){
+		if (hasErrors()) return new Result(null, String.join("\n", errors));
+
+		Interpreter interpreter = new Interpreter(output);
+		try {
+			interpreter.execute(statements);
+			return new Result(null, null);
+		} catch (RuntimeError error){
+			return new Result(null, error.report());
+		} catch (StackOverflowError error){
+			//the interpreter recurses over the tree too, and a run has no line to report
+			return new Result(null, TOO_DEEP + " to run.");
+		} finally {
+			output.flush();
+		}
+	}
+
+	//runs every program as its own task on the executor and waits for them all
+	//results come back in the same order as the programs, one for each whatever happened to it
+	public static List<Result> runAll(List<Program> programs, ExecutorService executor)
+			throws InterruptedException {
+		List<Future<Result>> pending = new ArrayList<>(programs.size());
+		for (Program program : programs){
+			pending.add(executor.submit(() -> program.run()));
+		}
+
+		List<Result> results = new ArrayList<>(pending.size());
+		for (Future<Result> future : pending){
+			try {
+				results.add(future.get());
+			} catch (ExecutionException error){
+				//lox errors are already results, anything else fails this program only, like --batch
+				results.add(new Result(null, "Script failed: " + error.getCause() + "."));
+			}
+		}
+
+		return results;
+	}
+
+	/*
+	 * an executor that starts a virtual thread per script when the jvm has them (java 21 on)
+	 * so thousands of scripts can be in flight at once, otherwise a pool with a thread per core
+	 * looked up by name so the interpreter still builds and runs on older jdks
+	 */
+	public static ExecutorService newExecutor(){
+		try {
+			Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)virtual.invoke(null);
+		} catch (ReflectiveOperationException error){
+			return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package com.beacodeart.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Resolver
+ *
+ * static pass that runs between the parser and the interpreter
+ * walks the tree once and works out, for every local variable, how many scopes
+ * out it lives (depth) and which position in that scope's array it occupies (slot)
+ * the result is stored on the nodes so the interpreter never has to look a local up by name
+ * anything that doesn't resolve to a local is treated as a global
+ */
+class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+	//each map is one block scope, mapping variable name to slot index
+	private final List<Map<String, Integer>> scopes = new ArrayList<>();
+
+	//entry point, resolve every top level statement
+	void resolve(List<Stmt> statements){
+		for (Stmt statement : statements){
+			resolve(statement);
+		}
+	}
+
+	private void resolve(Stmt stmt){
+		stmt.accept(this);
+	}
+
+	private void resolve(Expr expr){
+		expr.accept(this);
+	}
+
+	private void beginScope(){
+		scopes.add(new HashMap<>());
+	}
+
+	private void endScope(){
+		scopes.remove(scopes.size() - 1);
+	}
+
+	//walk scopes from the innermost out, the first one holding the name wins
+	//returns the depth, or -1 if the name is not a local
+	private int resolveLocal(Token name){
+		for (int i = scopes.size() - 1; i >= 0; i--){
+			if (scopes.get(i).containsKey(name.lexeme)){
+				return scopes.size() - 1 - i;
+			}
+		}
+
+		return -1;
+	}
+
+	//a block that declares nothing gets no scope at all, its statements resolve as if they were
+	//written straight into the enclosing one, and the engines run them there (slotCount 0)
+	@Override
+	public Void visitBlockStmt(Stmt.Block stmt){
+		if (!declaresVariables(stmt)){
+			resolve(stmt.statements);
+			stmt.slotCount = 0;
+			return null;
+		}
+
+		beginScope();
+		resolve(stmt.statements);
+		//the interpreter sizes the block's environment from this
+		stmt.slotCount = scopes.get(scopes.size() - 1).size();
+		endScope();
+		return null;
+	}
+
+	private static boolean declaresVariables(Stmt.Block stmt){
+		for (Stmt statement : stmt.statements){
+			if (statement instanceof Stmt.Var) return true;
+		}
+		return false;
+	}
+
+	@Override
+	public Void visitExpressionStmt(Stmt.Expression stmt){
+		resolve(stmt.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitPrintStmt(Stmt.Print stmt){
+		resolve(stmt.expression);
+		return null;
+	}
+
+	//the initializer is resolved before the name is declared so var a = a; still reads the outer a
+	//redeclaring a name in the same block reuses its slot, same as overwriting the map entry used to
+	@Override
+	public Void visitVarStmt(Stmt.Var stmt){
+		if (stmt.initializer != null){
+			resolve(stmt.initializer);
+		}
+
+		if (scopes.isEmpty()) return null;
+
+		Map<String, Integer> scope = scopes.get(scopes.size() - 1);
+		Integer slot = scope.get(stmt.name.lexeme);
+		if (slot == null){
+			slot = scope.size();
+			scope.put(stmt.name.lexeme, slot);
+		}
+		stmt.slot = slot;
+		return null;
+	}
+
+	@Override
+	public Void visitAssignExpr(Expr.Assign expr){
+		resolve(expr.value);
+		expr.depth = resolveLocal(expr.name);
+		if (expr.depth >= 0){
+			expr.slot = scopes.get(scopes.size() - 1 - expr.depth).get(expr.name.lexeme);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitBinaryExpr(Expr.Binary expr){
+		resolve(expr.left);
+		resolve(expr.right);
+		return null;
+	}
+
+	@Override
+	public Void visitCallExpr(Expr.Call expr){
+		resolve(expr.callee);
+		for (Expr argument : expr.arguments){
+			resolve(argument);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitGroupingExpr(Expr.Grouping expr){
+		resolve(expr.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitLiteralExpr(Expr.Literal expr){
+		return null;
+	}
+
+	@Override
+	public Void visitUnaryExpr(Expr.Unary expr){
+		resolve(expr.right);
+		return null;
+	}
+
+	@Override
+	public Void visitVariableExpr(Expr.Variable expr){
+		expr.depth = resolveLocal(expr.name);
+		if (expr.depth >= 0){
+			expr.slot = scopes.get(scopes.size() - 1 - expr.depth).get(expr.name.lexeme);
+		}
+		return null;
+	}
+}
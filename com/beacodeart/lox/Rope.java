@@ -0,0 +1,89 @@
+package com.beacodeart.lox;
+
+/*
+ * Rope
+ *
+ * the string value + produces, so building a string up a piece at a time doesn't copy everything
+ * built so far on every step. string literals stay plain Strings, a lox string is either one
+ *
+ * a rope is a prefix of a StringBuilder it shares with the ropes it was built from. when the left
+ * side of + is the rope that ends at the end of its builder, the right side is appended in place,
+ * so s = s + "..." only ever copies the new piece. the characters a rope covers never change after
+ * it is made, appends only go past its end. if something else has already been appended past the
+ * left side, the concat starts a new builder instead
+ *
+ * the characters are only turned into a String when something needs one, stringify, printing or
+ * comparing, and that String is kept. ropes never leave the run that made them, the Optimizer
+ * flattens folded constants, so the unsynchronized builder is only ever touched by one thread
+ */
+public final class Rope implements CharSequence {
+	private final StringBuilder chars;
+	private final int length;
+	//the flattened characters, made on first use
+	private String flat;
+
+	private Rope(StringBuilder chars, int length){
+		this.chars = chars;
+		this.length = length;
+	}
+
+	//left + right, both a String or a Rope
+	public static Rope concat(CharSequence left, CharSequence right){
+		if (left instanceof Rope){
+			Rope rope = (Rope)left;
+			if (rope.chars.length() == rope.length){
+				append(rope.chars, right);
+				return new Rope(rope.chars, rope.chars.length());
+			}
+		}
+
+		//room to grow, the next concat will most likely extend this one
+		StringBuilder chars = new StringBuilder(Math.max(16, (left.length() + right.length()) * 2));
+		append(chars, left);
+		append(chars, right);
+		return new Rope(chars, chars.length());
+	}
+
+	//appending a rope only copies the part of its builder it covers
+	private static void append(StringBuilder chars, CharSequence value){
+		if (value instanceof Rope){
+			Rope rope = (Rope)value;
+			chars.append(rope.chars, 0, rope.length);
+		} else {
+			chars.append((String)value);
+		}
+	}
+
+	@Override
+	public int length(){
+		return length;
+	}
+
+	@Override
+	public char charAt(int index){
+		if (index < 0 || index >= length) throw new IndexOutOfBoundsException(index);
+		return chars.charAt(index);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end){
+		return toString().substring(start, end);
+	}
+
+	@Override
+	public String toString(){
+		if (flat == null) flat = chars.substring(0, length);
+		return flat;
+	}
+
+	//ropes compare by their characters, Values.isEqual also matches a rope against a String
+	@Override
+	public boolean equals(Object other){
+		return other instanceof Rope && toString().equals(other.toString());
+	}
+
+	@Override
+	public int hashCode(){
+		return toString().hashCode();
+	}
+}
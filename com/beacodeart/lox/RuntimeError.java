@@ -3,9 +3,24 @@ package com.beacodeart.lox;
 // custom lox exeception so user doesn't see java stack trace
 class RuntimeError extends RuntimeException{
 	final Token token;
+	// line to report, taken from the token when we have one
+	final int line;
 
 	RuntimeError(Token token, String message) {
 		super(message);
 		this.token = token;
+		this.line = token.line;
+	}
+
+	// used by engines that only keep a line table rather than the original tokens
+	RuntimeError(int line, String message) {
+		super(message);
+		this.token = null;
+		this.line = line;
+	}
+
+	// the message and line the way they are shown to the user
+	String report() {
+		return getMessage() + "\n[line " + line + "]";
 	}
 }
@@ -1,5 +1,8 @@
 package com.beacodeart.lox;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.*;
 
 import static com.beacodeart.lox.TokenType.*;
@@ -9,59 +12,106 @@ import static com.beacodeart.lox.TokenType.*;
  * 
  * takes in a string and produces a list of tokens
  * 
+ * can also read from a Reader and hand out one token at a time through next(),
+ * in that case only a small window of the input around the current token is kept in memory
  */
 class Scanner {
-	//input
-	private final String source;
-	//output
-	private final List<Token> tokens = new ArrayList<>();
+	//size of the window read from a Reader at a time
+	private static final int BUFFER_SIZE = 8192;
+
+	//input, either the whole source or a window over the reader
+	private char[] buffer;
+	//number of valid characters in buffer
+	private int limit;
+	//null when scanning a string that is already fully in memory
+	private final Reader reader;
+	//where syntax errors go
+	private final ErrorReporter reporter;
+	//the token found by the last call to scanToken, if it found one
+	private Token pending;
+	//set while scanCompact is running, tokens are recorded here instead of becoming Token objects
+	private TokenBuffer compact;
+	//identifiers and string literals, so each distinct one is only made into a String once
+	//scanCompact leaves this to the TokenBuffer
+	private final SymbolTable symbols = new SymbolTable();
 	//pointers
 	private int start = 0;
 	private int current = 0;
 	//tracking
 	private int line = 1;
 	
-	//use a map so we can easily identify reserved keywords
-	private static final Map<String, TokenType> keywords;
-
-	static {
-		keywords = new HashMap<>();
-		keywords.put("and", AND);
-		keywords.put("class", CLASS);
-		keywords.put("else", ELSE);
-		keywords.put("false", FALSE);
-		keywords.put("for", FOR);
-		keywords.put("fun", FUN);
-		keywords.put("if", IF);
-		keywords.put("nil", NIL);
-		keywords.put("or", OR);
-		keywords.put("print", PRINT);
-		keywords.put("return", RETURN);
-		keywords.put("super", SUPER);
-		keywords.put("this", THIS);
-		keywords.put("true", TRUE);
-		keywords.put("var", VAR);
-		keywords.put("while", WHILE);
-	}
+	//powers of ten that a double holds exactly, used by the number fast path
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
 
 	public Scanner (String source){
-		this.source = source;
+		this(source, Lox.REPORTER);
+	}
+
+	Scanner (String source, ErrorReporter reporter){
+		this.buffer = source.toCharArray();
+		this.limit = buffer.length;
+		this.reader = null;
+		this.reporter = reporter;
+	}
+
+	//streaming scanner, characters are pulled from the reader as tokens need them
+	public Scanner (Reader reader){
+		this.buffer = new char[BUFFER_SIZE];
+		this.limit = 0;
+		this.reader = reader;
+		this.reporter = Lox.REPORTER;
 	}
 
 	/*
-	 * while or current position in the string is not greater than the length of the string
-	 * call the scan token method, when we run out of string, we append an eof token
-	 * this just makes other things easier for us.
+	 * keep asking for the next token until we get the eof token
+	 * which we append to the list too, this just makes other things easier for us.
 	 */
 	List<Token> scanTokens(){
+		List<Token> tokens = new ArrayList<>();
+		Token token;
+		do {
+			token = next();
+			tokens.add(token);
+		} while (token.type != EOF);
+		return tokens;
+	}
+
+	/*
+	 * scans the whole source into a compact TokenBuffer instead of a list of Token objects
+	 * only for sources that are fully in memory, the buffer keeps offsets into the source
+	 */
+	TokenBuffer scanCompact(){
+		if (reader != null) throw new IllegalStateException("Cannot compact a streaming scanner.");
+
+		compact = new TokenBuffer(buffer);
 		while (!isAtEnd()) {
+			start = current;
+			scanToken();
+		}
+		compact.add(EOF, current, 0, line);
+		return compact;
+	}
+
+	/*
+	 * while or current position in the string is not greater than the length of the string
+	 * call the scan token method until it produces a token, when we run out of string we return an eof token
+	 * whitespace and comments don't produce anything so may take a few goes
+	 */
+	Token next(){
+		while (pending == null) {
+			if (isAtEnd()) return new Token(EOF, "", null, line);
 			//set start pointer
 			start = current;
 			//scan the next token - may be variable length
 			scanToken();
 		}
-		tokens.add(new Token(EOF, "", null, line));
-		return tokens;
+
+		Token token = pending;
+		pending = null;
+		return token;
 	}
 
 	// big switch statement that checks what our current character is then acts bassed on that
@@ -126,7 +176,7 @@ class Scanner {
 				 } else if (isAlpha(c)) { //if we have a letter this may be a variable identifyer or a reserved keyword. identifier handles both
 					identifier();
 				 } else {
-					Lox.error(line, "unexpected character");
+					reporter.error(line, "unexpected character");
 				 }
 				 break;
 
@@ -137,13 +187,71 @@ class Scanner {
 	private void identifier(){
 		while (isAlphaNumeric(peek())) advance();
 		
-		//pull the text of our identifier into a variable
-		String text = source.substring(start, current);
 		// if our text matches a reserved keyword we can add that keyword as a token
-		TokenType type = keywords.get(text);
-		if (type == null) type = IDENTIFIER;
 		// if text doesn't match reserved keyword then we add a variable identifier 
-		addToken(type);
+		TokenType type = keyword();
+		if (type != IDENTIFIER) {
+			addToken(type);
+			return;
+		}
+
+		// the compact store interns when the parser asks for the token
+		if (compact != null) {
+			addToken(IDENTIFIER);
+			return;
+		}
+
+		// identifiers are interned, the lexeme is the symbol's shared name
+		Symbol symbol = symbols.symbol(buffer, start, current - start);
+		pending = new Token(IDENTIFIER, symbol.name, null, line, symbol);
+	}
+
+	// reserved keywords are matched straight off the buffer, no string is built to look them up
+	// switch on the first letter (and the second where several keywords share one) then compare the rest
+	private TokenType keyword(){
+		switch (buffer[start]) {
+			case 'a': return checkKeyword(1, "nd", AND);
+			case 'c': return checkKeyword(1, "lass", CLASS);
+			case 'e': return checkKeyword(1, "lse", ELSE);
+			case 'f':
+				if (current - start > 1) {
+					switch (buffer[start + 1]) {
+						case 'a': return checkKeyword(2, "lse", FALSE);
+						case 'o': return checkKeyword(2, "r", FOR);
+						case 'u': return checkKeyword(2, "n", FUN);
+					}
+				}
+				break;
+			case 'i': return checkKeyword(1, "f", IF);
+			case 'n': return checkKeyword(1, "il", NIL);
+			case 'o': return checkKeyword(1, "r", OR);
+			case 'p': return checkKeyword(1, "rint", PRINT);
+			case 'r': return checkKeyword(1, "eturn", RETURN);
+			case 's': return checkKeyword(1, "uper", SUPER);
+			case 't':
+				if (current - start > 1) {
+					switch (buffer[start + 1]) {
+						case 'h': return checkKeyword(2, "is", THIS);
+						case 'r': return checkKeyword(2, "ue", TRUE);
+					}
+				}
+				break;
+			case 'v': return checkKeyword(1, "ar", VAR);
+			case 'w': return checkKeyword(1, "hile", WHILE);
+		}
+
+		return IDENTIFIER;
+	}
+
+	// the rest of the identifier after offset has to be exactly rest for it to be the keyword
+	private TokenType checkKeyword(int offset, String rest, TokenType type){
+		if (current - start != offset + rest.length()) return IDENTIFIER;
+
+		for (int i = 0; i < rest.length(); i++){
+			if (buffer[start + offset + i] != rest.charAt(i)) return IDENTIFIER;
+		}
+
+		return type;
 	}
 
 	//deals with case of number
@@ -158,10 +266,49 @@ class Scanner {
 			while(isDigit(peek())) advance();
 		}
 
+		//the compact buffer works the value out later from the source
+		if (compact != null) {
+			addToken(NUMBER);
+			return;
+		}
+
 		//all numbers are stored as double
-		addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+		addToken(NUMBER, parseNumber(buffer, start, current));
+
+
+	}
+
+	/*
+	 * value of the number literal between start and end
+	 * the digits are gathered into a long as we go, with the decimal point ignored. if there are no
+	 * more than 15 of them the long converts to a double exactly, and so does any power of ten up to
+	 * 1e22, so one division gives the correctly rounded value without building a string
+	 * anything longer falls back to Double.parseDouble
+	 */
+	static double parseNumber(char[] chars, int start, int end){
+		long mantissa = 0;
+		int digits = 0;
+		int fractionDigits = 0;
+		boolean fraction = false;
+
+		for (int i = start; i < end; i++){
+			char c = chars[i];
+			if (c == '.') {
+				fraction = true;
+				continue;
+			}
+
+			mantissa = mantissa * 10 + (c - '0');
+			digits++;
+			if (fraction) fractionDigits++;
+		}
 
+		if (digits <= 15) {
+			if (fractionDigits == 0) return mantissa;
+			return mantissa / POWERS_OF_TEN[fractionDigits];
+		}
 
+		return Double.parseDouble(new String(chars, start, end - start));
 	}
 
 	// deals with strings, should advance until we get to  corresponding closing " or throw an error if we do not find one
@@ -172,21 +319,26 @@ class Scanner {
 		}
 
 		if (isAtEnd()) {
-			Lox.error(line, "unterminated string");
+			reporter.error(line, "unterminated string");
 			return;
 		}
 
 		advance();
 
-		// trim quotation marks
-		String value = source.substring(start +1, current -1);
+		if (compact != null) {
+			addToken(STRING);
+			return;
+		}
+
+		// trim quotation marks, each distinct literal is only one String
+		String value = symbols.string(buffer, start + 1, current - start - 2);
 		addToken(STRING, value);
 	}
 
 	//evaluates whether our current character match the char passed in.
 	private boolean match(char expected){
 		if (isAtEnd()) return false;
-		if (source.charAt(current) != expected) return false;
+		if (buffer[current] != expected) return false;
 
 		current++;
 		return true;
@@ -195,13 +347,15 @@ class Scanner {
 	//returns current, which is one adhead of the return from advance
 	private char peek(){
 		if (isAtEnd()) return '\0';
-		return source.charAt(current);
+		return buffer[current];
 	}
 
 	// returns our next character without affecting our pointers
 	private char peekNext(){
-		if (current + 1 >= source.length()) return '\0';
-		return source.charAt(current + 1);
+		while (current + 1 >= limit) {
+			if (!fill()) return '\0';
+		}
+		return buffer[current + 1];
 	}
 
 	// returns whether ouir character is a letter
@@ -223,24 +377,53 @@ class Scanner {
 
 	// returns true if our current pointer is at the end of our string
 	private boolean isAtEnd(){
-		return current >= source.length();
+		return current >= limit && !fill();
+	}
+
+	//streaming only, slide the current token to the front of the buffer and read more after it
+	//growing the buffer if one token fills the whole thing. returns false once the reader runs dry
+	private boolean fill(){
+		if (reader == null) return false;
+
+		int kept = limit - start;
+		if (kept == buffer.length){
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		}
+		System.arraycopy(buffer, start, buffer, 0, kept);
+		current -= start;
+		start = 0;
+		limit = kept;
+
+		try {
+			int read = reader.read(buffer, limit, buffer.length - limit);
+			if (read <= 0) return false;
+			limit += read;
+			return true;
+		} catch (IOException error){
+			throw new UncheckedIOException(error);
+		}
 	}
 
 	//advances our current character then returns what the current character was before that advance
 	private char advance() {
 		current ++;
-		return source.charAt(current -1);
+		return buffer[current -1];
 	}
 
 	// adds a token with null value
 	private void addToken(TokenType type) {
+		if (compact != null) {
+			compact.add(type, start, current - start, line);
+			return;
+		}
+
 		addToken(type, null);
 	}
 
 	// adds a token with value
 	private void addToken(TokenType type, Object literal){
-		String text = source.substring(start, current);
-		tokens.add(new Token(type, text, literal, line));
+		String text = new String(buffer, start, current - start);
+		pending = new Token(type, text, literal, line);
 	}
 
 }
@@ -0,0 +1,123 @@
+package com.beacodeart.lox;
+
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/*
+ * SpecializingInterpreter
+ *
+ * alternative execution mode selected with --specialize
+ * translates the resolved statements into a tree of Nodes and runs that instead of visiting the ast
+ * operator nodes rewrite themselves to match the types they actually see, see Node
+ * each statement is translated the first time it runs and its nodes are kept, so running the same
+ * statements again runs the nodes that already specialized themselves, globals are kept like in Interpreter
+ */
+class SpecializingInterpreter implements Expr.Visitor<Node>, Stmt.Visitor<Node> {
+	private final GlobalTable globals = new GlobalTable();
+	//top level statements run in an empty environment, see Environment
+	private final Environment environment = new Environment(null, 0);
+	private final OutputSink output;
+	//the nodes for each top level statement, held weakly so the repl doesn't keep every line it ran
+	//statements are compared by identity, the same statement objects have to come back for a reuse
+	private final Map<Stmt, Node> translated = new WeakHashMap<>();
+
+	SpecializingInterpreter(OutputSink output){
+		this.output = output;
+		Natives.define(globals);
+	}
+
+	//entry point, same error handling as Interpreter.interpret
+	void interpret(List<Stmt> statements){
+		try {
+			for (Stmt statement : statements){
+				Node node = translated.get(statement);
+				if (node == null){
+					node = statement.accept(this);
+					translated.put(statement, node);
+				}
+				node.execute(environment);
+			}
+		} catch (RuntimeError error){
+			Lox.runtimeError(error);
+		}
+	}
+
+	private Node build(Expr expr){
+		return expr.accept(this);
+	}
+
+	@Override
+	public Node visitBlockStmt(Stmt.Block stmt){
+		Node[] statements = new Node[stmt.statements.size()];
+		for (int i = 0; i < statements.length; i++){
+			statements[i] = stmt.statements.get(i).accept(this);
+		}
+
+		return new Node.Block(statements, stmt.slotCount);
+	}
+
+	@Override
+	public Node visitExpressionStmt(Stmt.Expression stmt){
+		return new Node.Expression(build(stmt.expression));
+	}
+
+	@Override
+	public Node visitPrintStmt(Stmt.Print stmt){
+		return new Node.Print(output, build(stmt.expression));
+	}
+
+	@Override
+	public Node visitVarStmt(Stmt.Var stmt){
+		Node initializer = stmt.initializer == null ? null : build(stmt.initializer);
+		return new Node.Define(globals, stmt.name, stmt.slot, initializer);
+	}
+
+	@Override
+	public Node visitAssignExpr(Expr.Assign expr){
+		if (expr.depth >= 0){
+			return new Node.WriteLocal(expr.depth, expr.slot, build(expr.value));
+		}
+
+		return new Node.WriteGlobal(globals, expr.name, build(expr.value));
+	}
+
+	@Override
+	public Node visitBinaryExpr(Expr.Binary expr){
+		return new Node.UninitializedBinary(build(expr.left), expr.operator, build(expr.right));
+	}
+
+	@Override
+	public Node visitCallExpr(Expr.Call expr){
+		Node[] arguments = new Node[expr.arguments.size()];
+		for (int i = 0; i < arguments.length; i++){
+			arguments[i] = build(expr.arguments.get(i));
+		}
+
+		return new Node.Call(build(expr.callee), expr.paren.line, arguments);
+	}
+
+	@Override
+	public Node visitGroupingExpr(Expr.Grouping expr){
+		return build(expr.expression);
+	}
+
+	@Override
+	public Node visitLiteralExpr(Expr.Literal expr){
+		return new Node.Literal(expr.value);
+	}
+
+	@Override
+	public Node visitUnaryExpr(Expr.Unary expr){
+		return new Node.UninitializedUnary(expr.operator, build(expr.right));
+	}
+
+	@Override
+	public Node visitVariableExpr(Expr.Variable expr){
+		if (expr.depth >= 0){
+			return new Node.ReadLocal(expr.depth, expr.slot);
+		}
+
+		return new Node.ReadGlobal(globals, expr.name);
+	}
+}
@@ -0,0 +1,567 @@
+package com.beacodeart.lox;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * StackInterpreter
+ *
+ * alternative execution mode selected with --stack, for machine generated scripts nested deeper
+ * than the java call stack allows, a + chain thousands of terms long or thousands of blocks inside
+ * each other. nested blocks are kept on arrays that grow on the heap instead of the call stack.
+ * expressions are evaluated recursively up to a fixed depth, which keeps ordinary scripts about as
+ * fast as the Interpreter, anything deeper is finished on explicit operand stacks. nesting is only
+ * limited by memory
+ *
+ * it runs the tree straight from the parser, the Optimizer and Resolver both recurse over it.
+ * without the resolver, locals are found by shallow binding instead of by slot: each name has
+ * its innermost binding on top, a var in a block pushes one and leaving the block pops it again.
+ * lox has no loops or functions yet so a block runs once from top to bottom, which makes that find
+ * exactly the variable the resolver would have. a name with no binding is a global
+ *
+ * values, evaluation order, messages and lines are the same as the Interpreter
+ */
+class StackInterpreter {
+	//a local variable, shadowed is the binding of the same name further out
+	private static final class Binding {
+		Object value;
+		final Binding shadowed;
+		//how many blocks deep it was declared
+		final int depth;
+
+		Binding(Object value, Binding shadowed, int depth){
+			this.value = value;
+			this.shadowed = shadowed;
+			this.depth = depth;
+		}
+	}
+
+	private final GlobalTable globals = new GlobalTable();
+	//innermost binding of each name, null once the last one is popped
+	private final SymbolMap<Binding> bindings = new SymbolMap<>();
+	//names declared by the open blocks in order, each block pops back to its mark when it ends
+	private Symbol[] declared = new Symbol[16];
+	private int declaredCount = 0;
+
+	//open blocks, the statement each is up to and where its declarations start
+	private Stmt.Block[] blocks = new Stmt.Block[16];
+	private int[] positions = new int[16];
+	private int[] marks = new int[16];
+	private int blockCount = 0;
+
+	//expressions still being evaluated and how many of their operands are done
+	private Expr[] work = new Expr[16];
+	private int[] steps = new int[16];
+	private int workCount = 0;
+	//operands already evaluated, numeric ones unboxed
+	private Object[] values = new Object[16];
+	private int valueCount = 0;
+	private double[] numbers = new double[16];
+	private int numberCount = 0;
+	//the last operand popNumber took off
+	private double popped;
+
+	private final OutputSink output;
+
+	StackInterpreter(OutputSink output){
+		this.output = output;
+		Natives.define(globals);
+	}
+
+	//entry point, same error handling as Interpreter.interpret
+	void interpret(List<Stmt> statements){
+		try {
+			for (Stmt statement : statements){
+				execute(statement);
+			}
+		} catch (RuntimeError error){
+			Lox.runtimeError(error);
+		} finally {
+			//an error can leave blocks open and operands half evaluated, globals are kept
+			while (blockCount > 0){
+				closeBlock();
+			}
+			Arrays.fill(work, 0, workCount, null);
+			Arrays.fill(values, 0, valueCount, null);
+			workCount = 0;
+			valueCount = 0;
+			numberCount = 0;
+		}
+	}
+
+	//statements
+	//
+	private void execute(Stmt statement){
+		if (!(statement instanceof Stmt.Block)){
+			executeSimple(statement);
+			return;
+		}
+
+		int base = blockCount;
+		openBlock((Stmt.Block)statement);
+		while (blockCount > base){
+			int top = blockCount - 1;
+			List<Stmt> statements = blocks[top].statements;
+			int position = positions[top];
+			if (position == statements.size()){
+				closeBlock();
+				continue;
+			}
+
+			positions[top] = position + 1;
+			Stmt next = statements.get(position);
+			if (next instanceof Stmt.Block){
+				openBlock((Stmt.Block)next);
+			} else {
+				executeSimple(next);
+			}
+		}
+	}
+
+	//every statement but a block
+	private void executeSimple(Stmt statement){
+		if (statement instanceof Stmt.Expression){
+			value(((Stmt.Expression)statement).expression, 0);
+		} else if (statement instanceof Stmt.Print){
+			output.println(Values.stringify(value(((Stmt.Print)statement).expression, 0)));
+		} else {
+			Stmt.Var var = (Stmt.Var)statement;
+			Object value = var.initializer == null ? null : value(var.initializer, 0);
+			declare(var.name.symbol, value);
+		}
+	}
+
+	private void openBlock(Stmt.Block block){
+		if (blockCount == blocks.length){
+			blocks = Arrays.copyOf(blocks, blockCount * 2);
+			positions = Arrays.copyOf(positions, blockCount * 2);
+			marks = Arrays.copyOf(marks, blockCount * 2);
+		}
+
+		blocks[blockCount] = block;
+		positions[blockCount] = 0;
+		marks[blockCount] = declaredCount;
+		blockCount++;
+	}
+
+	//pops the bindings the block declared, so the names it shadowed are visible again
+	private void closeBlock(){
+		blockCount--;
+		blocks[blockCount] = null;
+		int mark = marks[blockCount];
+		while (declaredCount > mark){
+			Symbol name = declared[--declaredCount];
+			declared[declaredCount] = null;
+			bindings.put(name, bindings.get(name).shadowed);
+		}
+	}
+
+	//a var at the top level is a global, one in a block binds the name until the block ends
+	//declaring a name again in the same block just overwrites it
+	private void declare(Symbol name, Object value){
+		if (blockCount == 0){
+			globals.cell(name).define(value);
+			return;
+		}
+
+		Binding binding = bindings.get(name);
+		if (binding != null && binding.depth == blockCount){
+			binding.value = value;
+			return;
+		}
+
+		bindings.put(name, new Binding(value, binding, blockCount));
+		if (declaredCount == declared.length) declared = Arrays.copyOf(declared, declaredCount * 2);
+		declared[declaredCount++] = name;
+	}
+
+	//the innermost local with this name, null if there is none and it's a global
+	private Binding binding(Symbol name){
+		return bindings.get(name);
+	}
+
+	//expressions
+	//
+	//evaluated recursively while that is cheap and safe, the same fast paths as the Interpreter
+	//once an expression is MAX_RECURSION deep the subtree below is handed to the explicit stacks,
+	//so the java stack never holds more than that many frames however deep the tree goes
+	private static final int MAX_RECURSION = 256;
+
+	private Object value(Expr expr, int depth){
+		if (expr instanceof Expr.Literal) return ((Expr.Literal)expr).value;
+		if (expr instanceof Expr.Variable) return variable((Expr.Variable)expr);
+		if (depth == MAX_RECURSION) return evaluate(expr);
+		//numbers are only boxed once the whole numeric subtree is done
+		if (expr.numeric()) return number(expr, depth);
+
+		if (expr instanceof Expr.Binary){
+			Expr.Binary binary = (Expr.Binary)expr;
+			switch (binary.operator.type) {
+				case BANG_EQUAL: return !equal(binary, depth);
+				case EQUAL_EQUAL: return equal(binary, depth);
+				case PLUS: {
+					Object left = value(binary.left, depth + 1);
+					Object right = value(binary.right, depth + 1);
+					if (left instanceof Double && right instanceof Double){
+						return (double)left + (double)right;
+					}
+					if (left instanceof CharSequence && right instanceof CharSequence){
+						return Rope.concat((CharSequence)left, (CharSequence)right);
+					}
+					throw new RuntimeError(binary.operator, "Operands must be two numbers or two strings.");
+				}
+				default: {
+					double left = leftOperand(binary, depth);
+					double right = rightOperand(binary, depth);
+					switch (binary.operator.type) {
+						case GREATER: return left > right;
+						case GREATER_EQUAL: return left >= right;
+						case LESS: return left < right;
+						default: return left <= right;
+					}
+				}
+			}
+		}
+
+		if (expr instanceof Expr.Grouping) return value(((Expr.Grouping)expr).expression, depth + 1);
+		if (expr instanceof Expr.Unary) return !Values.isTruthy(value(((Expr.Unary)expr).right, depth + 1));
+
+		if (expr instanceof Expr.Assign){
+			Expr.Assign assign = (Expr.Assign)expr;
+			Object value = value(assign.value, depth + 1);
+			assign(assign, value);
+			return value;
+		}
+
+		return call((Expr.Call)expr, depth);
+	}
+
+	//an expression the parser knows is numeric
+	private double number(Expr expr, int depth){
+		if (expr instanceof Expr.Literal) return (double)((Expr.Literal)expr).value;
+		if (depth == MAX_RECURSION) return (double)evaluate(expr);
+
+		if (expr instanceof Expr.Binary){
+			Expr.Binary binary = (Expr.Binary)expr;
+			double left = leftOperand(binary, depth);
+			double right = rightOperand(binary, depth);
+			switch (binary.operator.type) {
+				case MINUS: return left - right;
+				case PLUS: return left + right;
+				case SLASH: return left / right;
+				default: return left * right;
+			}
+		}
+
+		if (expr instanceof Expr.Grouping) return number(((Expr.Grouping)expr).expression, depth + 1);
+
+		Expr.Unary unary = (Expr.Unary)expr;
+		if (unary.right.numeric()) return -number(unary.right, depth + 1);
+		Object right = value(unary.right, depth + 1);
+		if (!(right instanceof Double)) throw new RuntimeError(unary.operator, "Operand must be a number.");
+		return -(double)right;
+	}
+
+	//if the left side isn't a number the right side is still evaluated before the error
+	private double leftOperand(Expr.Binary expr, int depth){
+		if (expr.left.numeric()) return number(expr.left, depth + 1);
+
+		Object left = value(expr.left, depth + 1);
+		if (!(left instanceof Double)){
+			value(expr.right, depth + 1);
+			throw new RuntimeError(expr.operator, "Operands must be numbers.");
+		}
+		return (double)left;
+	}
+
+	private double rightOperand(Expr.Binary expr, int depth){
+		if (expr.right.numeric()) return number(expr.right, depth + 1);
+
+		Object right = value(expr.right, depth + 1);
+		if (!(right instanceof Double)) throw new RuntimeError(expr.operator, "Operands must be numbers.");
+		return (double)right;
+	}
+
+	private boolean equal(Expr.Binary expr, int depth){
+		if (expr.left.numeric() && expr.right.numeric()){
+			return Double.compare(number(expr.left, depth + 1), number(expr.right, depth + 1)) == 0;
+		}
+
+		Object left = value(expr.left, depth + 1);
+		return Values.isEqual(left, value(expr.right, depth + 1));
+	}
+
+	private Object call(Expr.Call expr, int depth){
+		Object callee = value(expr.callee, depth + 1);
+		List<Expr> arguments = expr.arguments;
+		int line = expr.paren.line;
+
+		switch (arguments.size()) {
+			case 0:
+				return function(expr, callee).call(line);
+			case 1: {
+				Object a = value(arguments.get(0), depth + 1);
+				return function(expr, callee).call(line, a);
+			}
+			case 2: {
+				Object a = value(arguments.get(0), depth + 1);
+				Object b = value(arguments.get(1), depth + 1);
+				return function(expr, callee).call(line, a, b);
+			}
+			case 3: {
+				Object a = value(arguments.get(0), depth + 1);
+				Object b = value(arguments.get(1), depth + 1);
+				Object c = value(arguments.get(2), depth + 1);
+				return function(expr, callee).call(line, a, b, c);
+			}
+			default: {
+				Object[] values = new Object[arguments.size()];
+				for (int i = 0; i < values.length; i++){
+					values[i] = value(arguments.get(i), depth + 1);
+				}
+				return function(expr, callee).call(line, values);
+			}
+		}
+	}
+
+	//the callee as a function, the arity is only checked when the call site sees a new callee
+	private static NativeFunction function(Expr.Call expr, Object callee){
+		NativeFunction checked = expr.checked;
+		if (checked != null && callee == checked) return checked;
+
+		checked = NativeFunction.check(callee, expr.arguments.size(), expr.paren.line);
+		expr.checked = checked;
+		return checked;
+	}
+
+	//the explicit stack evaluator, for subtrees too deep to recurse into
+	//
+	//each node on the work stack is visited once per operand, the step says how many it has
+	//pushed so far. once they are all evaluated the node pops them and pushes its result
+	//
+	//like the recursive side, an expression the parser knows is numeric is never boxed, its result
+	//goes on the number stack and everything else on the value stack, so whichever node pops an
+	//operand knows which stack it is on from the operand alone
+	private Object evaluate(Expr expr){
+		int base = workCount;
+		operand(expr);
+
+		while (workCount > base){
+			int top = workCount - 1;
+			Expr current = work[top];
+			int step = steps[top]++;
+
+			if (current instanceof Expr.Binary){
+				Expr.Binary binary = (Expr.Binary)current;
+				if (step == 0){
+					operand(binary.left);
+				} else if (step == 1){
+					operand(binary.right);
+				} else {
+					finish();
+					binary(binary);
+				}
+			} else if (current instanceof Expr.Call){
+				Expr.Call call = (Expr.Call)current;
+				if (step == 0){
+					operand(call.callee);
+				} else if (step <= call.arguments.size()){
+					operand(call.arguments.get(step - 1));
+				} else {
+					finish();
+					callOnStacks(call);
+				}
+			} else if (step == 0){
+				if (current instanceof Expr.Unary){
+					operand(((Expr.Unary)current).right);
+				} else if (current instanceof Expr.Grouping){
+					operand(((Expr.Grouping)current).expression);
+				} else {
+					operand(((Expr.Assign)current).value);
+				}
+			} else {
+				finish();
+				if (current instanceof Expr.Unary){
+					unary((Expr.Unary)current);
+				} else if (current instanceof Expr.Assign){
+					Object value = pop(((Expr.Assign)current).value);
+					push(value);
+					assign((Expr.Assign)current, value);
+				}
+				//a grouping's value is its expression's value, already on the right stack
+			}
+		}
+
+		return pop(expr);
+	}
+
+	//literals and variables are pushed straight away, anything else is queued
+	private void operand(Expr expr){
+		if (expr instanceof Expr.Literal){
+			Object value = ((Expr.Literal)expr).value;
+			if (value instanceof Double){
+				pushNumber((double)value);
+			} else {
+				push(value);
+			}
+		} else if (expr instanceof Expr.Variable){
+			push(variable((Expr.Variable)expr));
+		} else {
+			if (workCount == work.length){
+				work = Arrays.copyOf(work, workCount * 2);
+				steps = Arrays.copyOf(steps, workCount * 2);
+			}
+			work[workCount] = expr;
+			steps[workCount] = 0;
+			workCount++;
+		}
+	}
+
+	//the top node has all its operands
+	private void finish(){
+		work[--workCount] = null;
+	}
+
+	private void push(Object value){
+		if (valueCount == values.length) values = Arrays.copyOf(values, valueCount * 2);
+		values[valueCount++] = value;
+	}
+
+	private void pushNumber(double value){
+		if (numberCount == numbers.length) numbers = Arrays.copyOf(numbers, numberCount * 2);
+		numbers[numberCount++] = value;
+	}
+
+	//an operand's value from whichever stack it is on, boxed if it was a number
+	private Object pop(Expr operand){
+		if (operand.numeric()) return numbers[--numberCount];
+
+		Object value = values[--valueCount];
+		values[valueCount] = null;
+		return value;
+	}
+
+	//an operand that has to be a number, left in popped. false if it wasn't one
+	private boolean popNumber(Expr operand){
+		if (operand.numeric()){
+			popped = numbers[--numberCount];
+			return true;
+		}
+
+		Object value = values[--valueCount];
+		values[valueCount] = null;
+		if (!(value instanceof Double)) return false;
+		popped = (double)value;
+		return true;
+	}
+
+	private Object variable(Expr.Variable expr){
+		Binding binding = binding(expr.name.symbol);
+		if (binding != null) return binding.value;
+		return globals.cell(expr.name.symbol).get(expr.name);
+	}
+
+	private void assign(Expr.Assign expr, Object value){
+		Binding binding = binding(expr.name.symbol);
+		if (binding != null){
+			binding.value = value;
+		} else {
+			globals.cell(expr.name.symbol).assign(expr.name, value);
+		}
+	}
+
+	//both operands have been evaluated, the right one is on top. same checks and messages as Interpreter
+	private void binary(Expr.Binary expr){
+		switch (expr.operator.type) {
+			case BANG_EQUAL:
+			case EQUAL_EQUAL: {
+				boolean equal;
+				if (expr.left.numeric() && expr.right.numeric()){
+					double right = numbers[--numberCount];
+					double left = numbers[--numberCount];
+					equal = Double.compare(left, right) == 0;
+				} else {
+					Object right = pop(expr.right);
+					Object left = pop(expr.left);
+					equal = Values.isEqual(left, right);
+				}
+				push(expr.operator.type == TokenType.EQUAL_EQUAL ? equal : !equal);
+				return;
+			}
+			case PLUS:
+				if (!expr.numeric()){
+					Object right = pop(expr.right);
+					Object left = pop(expr.left);
+					if (left instanceof Double && right instanceof Double){
+						push((double)left + (double)right);
+					} else if (left instanceof CharSequence && right instanceof CharSequence){
+						push(Rope.concat((CharSequence)left, (CharSequence)right));
+					} else {
+						throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
+					}
+					return;
+				}
+				break;
+			default:
+				break;
+		}
+
+		boolean bothNumbers = popNumber(expr.right);
+		double right = popped;
+		bothNumbers &= popNumber(expr.left);
+		double left = popped;
+		if (!bothNumbers) throw new RuntimeError(expr.operator, "Operands must be numbers.");
+
+		switch (expr.operator.type) {
+			case GREATER: push(left > right); break;
+			case GREATER_EQUAL: push(left >= right); break;
+			case LESS: push(left < right); break;
+			case LESS_EQUAL: push(left <= right); break;
+			case MINUS: pushNumber(left - right); break;
+			case PLUS: pushNumber(left + right); break;
+			case SLASH: pushNumber(left / right); break;
+			default: pushNumber(left * right); break;
+		}
+	}
+
+	private void unary(Expr.Unary expr){
+		if (expr.operator.type == TokenType.BANG){
+			push(!Values.isTruthy(pop(expr.right)));
+			return;
+		}
+
+		if (!popNumber(expr.right)) throw new RuntimeError(expr.operator, "Operand must be a number.");
+		pushNumber(-popped);
+	}
+
+	//the callee and arguments have been evaluated, the last argument on top
+	private void callOnStacks(Expr.Call expr){
+		List<Expr> arguments = expr.arguments;
+		int count = arguments.size();
+		int line = expr.paren.line;
+
+		Object a = null;
+		Object b = null;
+		Object c = null;
+		Object[] rest = null;
+		if (count > 3){
+			rest = new Object[count];
+			for (int i = count - 1; i >= 0; i--){
+				rest[i] = pop(arguments.get(i));
+			}
+		} else {
+			if (count > 2) c = pop(arguments.get(2));
+			if (count > 1) b = pop(arguments.get(1));
+			if (count > 0) a = pop(arguments.get(0));
+		}
+		NativeFunction function = function(expr, pop(expr.callee));
+
+		switch (count) {
+			case 0: push(function.call(line)); break;
+			case 1: push(function.call(line, a)); break;
+			case 2: push(function.call(line, a, b)); break;
+			case 3: push(function.call(line, a, b, c)); break;
+			default: push(function.call(line, rest));
+		}
+	}
+}
@@ -21,12 +21,16 @@ abstract class Stmt {
     }
 
     final List<Stmt> statements;
+    //number of locals declared directly in this block, filled in by the resolver
+    //0 means the block has no scope of its own and runs in the enclosing one
+    int slotCount;
     }
 
 
 	static class Expression extends Stmt{
-		Expression(Expr expression){
+		Expression(Expr expression, int line){
 			this.expression = expression;
+			this.line = line;
 		}
 
 		@Override
@@ -35,11 +39,14 @@ abstract class Stmt {
 		}
 
 		final Expr expression;
+		//line of the statement's first token, see Print.line
+		final int line;
 	}
 
 	static class Print extends Stmt{
-		Print(Expr expression){
+		Print(Expr expression, int line){
 			this.expression = expression;
+			this.line = line;
 		}
 
 		@Override
@@ -48,6 +55,9 @@ abstract class Stmt {
 		}
 
 		final Expr expression;	
+		//line of the print keyword, only --profile needs it, folding can leave the expression
+		//as a bare literal with no token to take a line from
+		final int line;
 	}
 
 	static class Var extends Stmt {
@@ -63,6 +73,10 @@ abstract class Stmt {
 
     final Token name;
     final Expr initializer;
+    //slot in the enclosing block, -1 for a global
+    int slot = -1;
+    //for a global, the cell it was last defined in, see Interpreter.cell
+    GlobalTable.Cell cell;
   }
 
 
@@ -0,0 +1,59 @@
+package com.beacodeart.lox;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/*
+ * Symbol
+ *
+ * an interned identifier, there is exactly one Symbol for each name while anything still holds it
+ * so two names are the same variable exactly when their symbols are ==, and the hash is worked
+ * out once when the symbol is made instead of on every lookup
+ *
+ * the table is shared by every scanner, the repl and embedded Programs on other threads, so that
+ * a global defined by one run is found by the next. it is weak, a symbol no token, tree or global
+ * table refers to any more is dropped, so the names of scripts that are finished with don't stay
+ * in memory for the life of the jvm. nothing can tell a dropped symbol from the one made if its
+ * name turns up again
+ *
+ * SymbolTable keeps each scanner's own names in front of this, so the lock is only taken the
+ * first time a scan sees a name
+ */
+public final class Symbol {
+	//keyed by the symbol's own name string so the entry goes when the symbol does
+	private static final Map<String, WeakReference<Symbol>> TABLE = new WeakHashMap<>();
+
+	public final String name;
+	private final int hash;
+
+	private Symbol(String name){
+		this.name = name;
+		this.hash = name.hashCode();
+	}
+
+	public static Symbol intern(String name){
+		synchronized (TABLE) {
+			WeakReference<Symbol> reference = TABLE.get(name);
+			Symbol symbol = reference == null ? null : reference.get();
+			if (symbol != null) return symbol;
+
+			symbol = new Symbol(name);
+			//a cleared entry keeps its old key string, which nothing would hold on to
+			TABLE.remove(name);
+			TABLE.put(symbol.name, new WeakReference<>(symbol));
+			return symbol;
+		}
+	}
+
+	//equals is left as identity, interning makes that the same as comparing names
+	@Override
+	public int hashCode(){
+		return hash;
+	}
+
+	@Override
+	public String toString(){
+		return name;
+	}
+}
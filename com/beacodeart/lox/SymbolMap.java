@@ -0,0 +1,70 @@
+package com.beacodeart.lox;
+
+/*
+ * SymbolMap
+ *
+ * a map from Symbol to some value, belonging to one interpreter, see GlobalTable
+ * open addressing on the hash each symbol worked out when it was made, keys compared with ==
+ * it only holds the names its owner has looked up, so it grows with the script being run and not
+ * with every name the jvm has seen
+ *
+ * nothing is ever removed, a key can be given a null value instead
+ */
+final class SymbolMap<V> {
+	private Symbol[] keys = new Symbol[32];
+	private Object[] values = new Object[32];
+	private int count = 0;
+
+	//null if the name has no entry, or its value is null
+	@SuppressWarnings("unchecked")
+	V get(Symbol key){
+		int mask = keys.length - 1;
+		for (int i = slot(key) & mask; ; i = (i + 1) & mask){
+			Symbol found = keys[i];
+			if (found == key) return (V)values[i];
+			if (found == null) return null;
+		}
+	}
+
+	void put(Symbol key, V value){
+		int mask = keys.length - 1;
+		int i = slot(key) & mask;
+		while (keys[i] != null){
+			if (keys[i] == key){
+				values[i] = value;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+
+		keys[i] = key;
+		values[i] = value;
+		//grown once half full, like SymbolTable
+		if (++count * 2 > keys.length) grow();
+	}
+
+	private void grow(){
+		Symbol[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new Symbol[oldKeys.length * 2];
+		values = new Object[oldKeys.length * 2];
+
+		int mask = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++){
+			if (oldKeys[j] == null) continue;
+
+			int i = slot(oldKeys[j]) & mask;
+			while (keys[i] != null){
+				i = (i + 1) & mask;
+			}
+			keys[i] = oldKeys[j];
+			values[i] = oldValues[j];
+		}
+	}
+
+	//names like g1, g2, g3 only differ in the low bits of their hash, spread the high bits in too
+	private static int slot(Symbol key){
+		int hash = key.hashCode();
+		return hash ^ (hash >>> 16);
+	}
+}
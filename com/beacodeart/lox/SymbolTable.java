@@ -0,0 +1,117 @@
+package com.beacodeart.lox;
+
+import java.nio.ByteBuffer;
+
+/*
+ * SymbolTable
+ *
+ * one scanner's cache in front of Symbol.intern, looked up straight from the source characters
+ * so an identifier seen before costs no String and no trip to the shared table. string literals
+ * are interned here too, every occurrence of the same literal in one source is one String
+ *
+ * both are small open addressing tables keyed by the characters, hashed the same way as
+ * String.hashCode, grown once they are half full
+ *
+ * names can also be looked up straight from the bytes of a mapped file, see ByteScanner
+ * identifiers are always ascii so each byte is one character and hashes the same
+ */
+class SymbolTable {
+	private Symbol[] symbols = new Symbol[256];
+	private int symbolCount = 0;
+	private String[] strings = new String[64];
+	private int stringCount = 0;
+
+	Symbol symbol(char[] chars, int start, int length){
+		int hash = hash(chars, start, length);
+		int mask = symbols.length - 1;
+		for (int i = hash & mask; ; i = (i + 1) & mask){
+			Symbol symbol = symbols[i];
+			if (symbol == null) break;
+			if (symbol.hashCode() == hash && matches(symbol.name, chars, start, length)) return symbol;
+		}
+
+		Symbol symbol = Symbol.intern(new String(chars, start, length));
+		if (++symbolCount * 2 > symbols.length) symbols = grow(symbols, new Symbol[symbols.length * 2]);
+		insert(symbols, symbol, hash);
+		return symbol;
+	}
+
+	Symbol symbol(ByteBuffer bytes, int start, int length){
+		int hash = 0;
+		for (int i = start; i < start + length; i++){
+			hash = 31 * hash + bytes.get(i);
+		}
+
+		int mask = symbols.length - 1;
+		for (int i = hash & mask; ; i = (i + 1) & mask){
+			Symbol symbol = symbols[i];
+			if (symbol == null) break;
+			if (symbol.hashCode() == hash && matches(symbol.name, bytes, start, length)) return symbol;
+		}
+
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++){
+			chars[i] = (char)bytes.get(start + i);
+		}
+		Symbol symbol = Symbol.intern(new String(chars));
+		if (++symbolCount * 2 > symbols.length) symbols = grow(symbols, new Symbol[symbols.length * 2]);
+		insert(symbols, symbol, hash);
+		return symbol;
+	}
+
+	String string(char[] chars, int start, int length){
+		int hash = hash(chars, start, length);
+		int mask = strings.length - 1;
+		for (int i = hash & mask; ; i = (i + 1) & mask){
+			String string = strings[i];
+			if (string == null) break;
+			if (string.hashCode() == hash && matches(string, chars, start, length)) return string;
+		}
+
+		String string = new String(chars, start, length);
+		if (++stringCount * 2 > strings.length) strings = grow(strings, new String[strings.length * 2]);
+		insert(strings, string, hash);
+		return string;
+	}
+
+	private static <T> T[] grow(T[] old, T[] larger){
+		for (T entry : old){
+			if (entry != null) insert(larger, entry, entry.hashCode());
+		}
+		return larger;
+	}
+
+	private static <T> void insert(T[] table, T entry, int hash){
+		int mask = table.length - 1;
+		int i = hash & mask;
+		while (table[i] != null){
+			i = (i + 1) & mask;
+		}
+		table[i] = entry;
+	}
+
+	//same result as new String(chars, start, length).hashCode()
+	private static int hash(char[] chars, int start, int length){
+		int hash = 0;
+		for (int i = start; i < start + length; i++){
+			hash = 31 * hash + chars[i];
+		}
+		return hash;
+	}
+
+	private static boolean matches(String name, char[] chars, int start, int length){
+		if (name.length() != length) return false;
+		for (int i = 0; i < length; i++){
+			if (name.charAt(i) != chars[start + i]) return false;
+		}
+		return true;
+	}
+
+	private static boolean matches(String name, ByteBuffer bytes, int start, int length){
+		if (name.length() != length) return false;
+		for (int i = 0; i < length; i++){
+			if (name.charAt(i) != bytes.get(start + i)) return false;
+		}
+		return true;
+	}
+}
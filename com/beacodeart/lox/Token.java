@@ -11,13 +11,21 @@ class Token {
 	final Object literal;
 	// for error reporting	
 	final int line;
+	//the interned name for identifiers, null for every other type
+	final Symbol symbol;
 	
 	//ctor
-	public Token(TokenType type, String lexeme, Object literal, int line) {	
+	Token(TokenType type, String lexeme, Object literal, int line) {	
+		this(type, lexeme, literal, line, type == TokenType.IDENTIFIER ? Symbol.intern(lexeme) : null);
+	}
+
+	//for when the scanner has already interned the identifier, the lexeme is the symbol's name
+	Token(TokenType type, String lexeme, Object literal, int line, Symbol symbol) {	
 		 this.type = type;
 		 this.lexeme = lexeme;
 		 this.literal = literal;
 		 this.line = line;
+		 this.symbol = symbol;
 	}
 	
 	//to string
@@ -0,0 +1,195 @@
+package com.beacodeart.lox;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/*
+ * TokenBuffer
+ *
+ * compact token store, filled by Scanner.scanCompact
+ * instead of one Token object per token it keeps parallel arrays of type ordinal, start offset
+ * and length into the source, plus a line per token. nothing is allocated per token while scanning
+ *
+ * Token objects, lexemes and literal values are only built when somebody asks for them, and
+ * punctuation and keywords share one lexeme string per type so even then they cost no string
+ *
+ * the offsets point either into the characters of a source string or, when ByteScanner filled
+ * it, into the utf-8 bytes of a mapped file. only string literals are ever decoded from those
+ */
+class TokenBuffer {
+	private static final TokenType[] TYPES = TokenType.values();
+	//lexeme for every token type whose text is always the same, null where it comes from the source
+	private static final String[] FIXED_LEXEMES = new String[TYPES.length];
+
+	static {
+		String[][] punctuation = {
+			{"LEFT_PAREN", "("}, {"RIGHT_PAREN", ")"}, {"LEFT_BRACE", "{"}, {"RIGHT_BRACE", "}"},
+			{"COMMA", ","}, {"DOT", "."}, {"MINUS", "-"}, {"PLUS", "+"}, {"SEMICOLON", ";"},
+			{"SLASH", "/"}, {"STAR", "*"}, {"BANG", "!"}, {"BANG_EQUAL", "!="}, {"EQUAL", "="},
+			{"EQUAL_EQUAL", "=="}, {"GREATER", ">"}, {"GREATER_EQUAL", ">="}, {"LESS", "<"},
+			{"LESS_EQUAL", "<="}, {"EOF", ""}
+		};
+		for (String[] fixed : punctuation){
+			FIXED_LEXEMES[TokenType.valueOf(fixed[0]).ordinal()] = fixed[1];
+		}
+
+		//keywords are spelled the same as their token type
+		for (TokenType type : TYPES){
+			if (type.ordinal() >= TokenType.AND.ordinal() && type != TokenType.EOF){
+				FIXED_LEXEMES[type.ordinal()] = type.name().toLowerCase();
+			}
+		}
+	}
+
+	//the characters the offsets point into, or the bytes when source is null
+	private final char[] source;
+	private final ByteBuffer bytes;
+
+	private byte[] types = new byte[1024];
+	private int[] starts = new int[1024];
+	private int[] lengths = new int[1024];
+	private int[] lines = new int[1024];
+	private int count = 0;
+	//identifiers and string literals are interned as they are turned into values, not while scanning
+	private final SymbolTable symbols = new SymbolTable();
+
+	TokenBuffer(char[] source){
+		this.source = source;
+		this.bytes = null;
+	}
+
+	TokenBuffer(ByteBuffer bytes){
+		this.source = null;
+		this.bytes = bytes;
+	}
+
+	void add(TokenType type, int start, int length, int line){
+		if (count == types.length){
+			int capacity = count * 2;
+			types = Arrays.copyOf(types, capacity);
+			starts = Arrays.copyOf(starts, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			lines = Arrays.copyOf(lines, capacity);
+		}
+
+		types[count] = (byte)type.ordinal();
+		starts[count] = start;
+		lengths[count] = length;
+		lines[count] = line;
+		count++;
+	}
+
+	int size(){
+		return count;
+	}
+
+	TokenType type(int index){
+		return TYPES[types[index]];
+	}
+
+	int line(int index){
+		return lines[index];
+	}
+
+	int start(int index){
+		return starts[index];
+	}
+
+	int length(int index){
+		return lengths[index];
+	}
+
+	String lexeme(int index){
+		String fixed = FIXED_LEXEMES[types[index]];
+		if (fixed != null) return fixed;
+		if (type(index) == TokenType.IDENTIFIER) return symbol(index).name;
+		if (source == null) return ByteScanner.decode(bytes, starts[index], lengths[index]).toString();
+		return new String(source, starts[index], lengths[index]);
+	}
+
+	//worked out from the source text, the same way the scanner would have
+	Object literal(int index){
+		if (source == null) return bytesLiteral(index);
+
+		switch (type(index)) {
+			case NUMBER: return Scanner.parseNumber(source, starts[index], starts[index] + lengths[index]);
+			//trim quotation marks
+			case STRING: return symbols.string(source, starts[index] + 1, lengths[index] - 2);
+			default: return null;
+		}
+	}
+
+	//a string literal is decoded here and nowhere else, then interned like one from a source string
+	private Object bytesLiteral(int index){
+		switch (type(index)) {
+			case NUMBER: return ByteScanner.parseNumber(bytes, starts[index], starts[index] + lengths[index]);
+			case STRING: {
+				CharBuffer chars = ByteScanner.decode(bytes, starts[index] + 1, lengths[index] - 2);
+				return symbols.string(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+			}
+			default: return null;
+		}
+	}
+
+	Symbol symbol(int index){
+		if (source == null) return symbols.symbol(bytes, starts[index], lengths[index]);
+		return symbols.symbol(source, starts[index], lengths[index]);
+	}
+
+	//builds the Token for one entry, only done when a Token is really needed
+	Token token(int index){
+		if (type(index) == TokenType.IDENTIFIER){
+			Symbol symbol = symbol(index);
+			return new Token(TokenType.IDENTIFIER, symbol.name, null, lines[index], symbol);
+		}
+		return new Token(type(index), lexeme(index), literal(index), lines[index]);
+	}
+
+	TokenCursor cursor(){
+		return new TokenCursor() {
+			private int current = 0;
+
+			@Override
+			public TokenType type() {
+				return TYPES[types[current]];
+			}
+
+			@Override
+			public int line() {
+				return lines[current];
+			}
+
+			@Override
+			public void advance() {
+				current++;
+			}
+
+			@Override
+			public Token current() {
+				return token(current);
+			}
+
+			@Override
+			public Token previous() {
+				return token(current - 1);
+			}
+
+			@Override
+			public Object previousLiteral() {
+				return literal(current - 1);
+			}
+		};
+	}
+
+	//same format as printing a List<Token>
+	@Override
+	public String toString(){
+		StringBuilder text = new StringBuilder("[");
+		for (int i = 0; i < count; i++){
+			if (i > 0) text.append(", ");
+			text.append(token(i));
+		}
+		return text.append("]").toString();
+	}
+}
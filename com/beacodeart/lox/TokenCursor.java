@@ -0,0 +1,24 @@
+package com.beacodeart.lox;
+
+// what the parser needs from its input
+// the type of the current token can be checked without a Token object existing for it,
+// the tokens themselves are only asked for when the parser is going to keep one or report an error
+interface TokenCursor {
+	//type of the token being looked at
+	TokenType type();
+
+	//line of the token being looked at
+	int line();
+
+	//move on to the next token
+	void advance();
+
+	//the token being looked at
+	Token current();
+
+	//the token just consumed
+	Token previous();
+
+	//literal value of the token just consumed
+	Object previousLiteral();
+}
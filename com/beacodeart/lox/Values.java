@@ -0,0 +1,45 @@
+package com.beacodeart.lox;
+
+/*
+ * Values
+ *
+ * the rules for lox values that every engine has to agree on, what counts as true, when two
+ * values are equal and how a value prints. kept in one place so the tree walkers, the vm and the
+ * compiled jvm code can't drift apart, public for the two engines that live in their own packages
+ */
+public final class Values {
+	private Values(){}
+
+	//nil and false are false, everything else is true
+	public static boolean isTruthy(Object object){
+		if (object == null) return false;
+		if (object instanceof Boolean) return (boolean) object;
+		return true;
+	}
+
+	public static boolean isEqual(Object a, Object b){
+		if (a == null && b == null) return true;
+		if (a == null) return false;
+
+		//a rope and a plain string with the same characters are the same lox string
+		if (a instanceof CharSequence && b instanceof CharSequence){
+			return a.toString().equals(b.toString());
+		}
+		return a.equals(b);
+	}
+
+	//whole numbers print without the .0 java would give them
+	public static String stringify(Object object){
+		if (object == null) return "nil";
+
+		if (object instanceof Double){
+			String text = object.toString();
+			if (text.endsWith(".0")){
+				text = text.substring(0, text.length() - 2);
+			}
+			return text;
+		}
+
+		return object.toString();
+	}
+}
@@ -0,0 +1,6 @@
+package com.beacodeart.lox.jvm;
+
+// what every class generated by JvmCompiler implements
+public interface JvmProgram {
+	void run(JvmRuntime runtime);
+}
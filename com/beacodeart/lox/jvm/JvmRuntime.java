@@ -0,0 +1,192 @@
+package com.beacodeart.lox.jvm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.beacodeart.lox.Errors;
+import com.beacodeart.lox.NativeFunction;
+import com.beacodeart.lox.Natives;
+import com.beacodeart.lox.OutputSink;
+import com.beacodeart.lox.Rope;
+import com.beacodeart.lox.Values;
+
+/*
+ * JvmRuntime
+ *
+ * everything generated code calls into, apart from the truthiness and equality rules in Values
+ * the global variables and the output sink live on the instance, so they carry over from one
+ * compiled program to the next like the repl expects. the static helpers do the type checks the
+ * generated code can't do without branching, with the same messages as Interpreter
+ * all of it is public since generated classes are defined by their own class loader
+ */
+public class JvmRuntime {
+	//one global variable, generated classes keep these in static fields so a lookup is a field read
+	public static class Global {
+		private final String name;
+		private Object value;
+		private boolean defined = false;
+
+		Global(String name){
+			this.name = name;
+		}
+
+		public Object get(int line){
+			if (!defined) throw Errors.runtime(line, "undefined variable " + name + ".");
+			return value;
+		}
+
+		public Object assign(Object value, int line){
+			if (!defined) throw Errors.runtime(line, "Undefined variable '" + name + "'.");
+			this.value = value;
+			return value;
+		}
+
+		public void define(Object value){
+			this.value = value;
+			defined = true;
+		}
+	}
+
+	//one call expression, keeps the function it last checked the arity of and the line for errors
+	public static class CallSite {
+		private final int count;
+		private final int line;
+		private NativeFunction checked;
+
+		CallSite(int count, int line){
+			this.count = count;
+			this.line = line;
+		}
+
+		public Object call(Object callee){
+			return function(callee).call(line);
+		}
+
+		public Object call(Object callee, Object a){
+			return function(callee).call(line, a);
+		}
+
+		public Object call(Object callee, Object a, Object b){
+			return function(callee).call(line, a, b);
+		}
+
+		public Object call(Object callee, Object a, Object b, Object c){
+			return function(callee).call(line, a, b, c);
+		}
+
+		public Object call(Object callee, Object[] arguments){
+			return function(callee).call(line, arguments);
+		}
+
+		private NativeFunction function(Object callee){
+			if (checked != null && callee == checked) return checked;
+			checked = NativeFunction.check(callee, count, line);
+			return checked;
+		}
+	}
+
+	private final Map<String, Global> globals = new HashMap<>();
+	private final OutputSink output;
+
+	public JvmRuntime(OutputSink output){
+		this.output = output;
+		for (NativeFunction function : Natives.all()){
+			global(function.name).define(function);
+		}
+	}
+
+	//the cell for a global, made on first use and undefined until a var statement runs
+	public Global global(String name){
+		return globals.computeIfAbsent(name, Global::new);
+	}
+
+	public static CallSite callSite(int count, int line){
+		return new CallSite(count, line);
+	}
+
+	public void print(Object value){
+		output.println(Values.stringify(value));
+	}
+
+	//operators, used whenever the compiler couldn't prove both operands are numbers
+	//
+	public static Object add(Object left, Object right, int line){
+		if (left instanceof Double && right instanceof Double){
+			return (double)left + (double)right;
+		}
+
+		if (left instanceof CharSequence && right instanceof CharSequence){
+			return Rope.concat((CharSequence)left, (CharSequence)right);
+		}
+
+		throw Errors.runtime(line, "Operands must be two numbers or two strings.");
+	}
+
+	public static double subtract(Object left, Object right, int line){
+		checkNumberOperands(left, right, line);
+		return (double)left - (double)right;
+	}
+
+	public static double multiply(Object left, Object right, int line){
+		checkNumberOperands(left, right, line);
+		return (double)left * (double)right;
+	}
+
+	public static double divide(Object left, Object right, int line){
+		checkNumberOperands(left, right, line);
+		return (double)left / (double)right;
+	}
+
+	public static boolean greater(Object left, Object right, int line){
+		checkNumberOperands(left, right, line);
+		return (double)left > (double)right;
+	}
+
+	public static boolean greaterEqual(Object left, Object right, int line){
+		checkNumberOperands(left, right, line);
+		return (double)left >= (double)right;
+	}
+
+	public static boolean less(Object left, Object right, int line){
+		checkNumberOperands(left, right, line);
+		return (double)left < (double)right;
+	}
+
+	public static boolean lessEqual(Object left, Object right, int line){
+		checkNumberOperands(left, right, line);
+		return (double)left <= (double)right;
+	}
+
+	public static double negate(Object right, int line){
+		if (!(right instanceof Double)) throw Errors.runtime(line, "Operand must be a number.");
+		return -(double)right;
+	}
+
+	//comparisons on two known numbers, kept out of the generated code so it stays branch free
+	public static boolean greater(double left, double right){
+		return left > right;
+	}
+
+	public static boolean greaterEqual(double left, double right){
+		return left >= right;
+	}
+
+	public static boolean less(double left, double right){
+		return left < right;
+	}
+
+	public static boolean lessEqual(double left, double right){
+		return left <= right;
+	}
+
+	//Double.compare agrees with Double.equals on NaN and -0, so this matches boxed equality
+	public static boolean isEqual(double left, double right){
+		return Double.compare(left, right) == 0;
+	}
+
+	private static void checkNumberOperands(Object left, Object right, int line){
+		if (left instanceof Double && right instanceof Double) return;
+
+		throw Errors.runtime(line, "Operands must be numbers.");
+	}
+}
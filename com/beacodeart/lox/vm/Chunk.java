@@ -0,0 +1,100 @@
+package com.beacodeart.lox.vm;
+
+import java.util.Arrays;
+
+/*
+ * Chunk
+ *
+ * the compiled form of a program
+ * a flat array of opcodes and operands, a constant pool for anything that doesn't fit in the
+ * instruction stream, and a line table so runtime errors can still report where they happened
+ *
+ * the line table is run length encoded, one (offset, line) pair each time the line changes
+ * it's only read when something goes wrong so lookup speed doesn't matter
+ *
+ * the compiler lives in com.beacodeart.lox next to the tree it walks, the public methods here are
+ * all it needs to build a chunk
+ */
+public class Chunk {
+	byte[] code = new byte[256];
+	int count = 0;
+
+	Object[] constants = new Object[16];
+	int constantCount = 0;
+
+	//pairs of starting offset and line number
+	private int[] lines = new int[16];
+	private int lineCount = 0;
+
+	//the line of each call instruction, indexed by its call site operand
+	//kept apart from the line table so a call can hand natives its line without a search
+	int[] siteLines = new int[4];
+	int siteCount = 0;
+
+	//deepest the value stack gets while running this chunk, worked out by the compiler
+	int maxStack = 0;
+
+	//append a byte, recording its line if it differs from the last one
+	public void write(byte b, int line){
+		if (count == code.length){
+			code = Arrays.copyOf(code, code.length * 2);
+		}
+
+		if (lineCount == 0 || lines[lineCount - 1] != line){
+			if (lineCount + 2 > lines.length){
+				lines = Arrays.copyOf(lines, lines.length * 2);
+			}
+			lines[lineCount++] = count;
+			lines[lineCount++] = line;
+		}
+
+		code[count++] = b;
+	}
+
+	//two byte operand, high byte first
+	public void writeShort(int value, int line){
+		write((byte)((value >> 8) & 0xff), line);
+		write((byte)(value & 0xff), line);
+	}
+
+	//returns the index of the new constant
+	public int addConstant(Object value){
+		if (constantCount == constants.length){
+			constants = Arrays.copyOf(constants, constants.length * 2);
+		}
+
+		constants[constantCount] = value;
+		return constantCount++;
+	}
+
+	//returns the index of the new call site
+	public int addSite(int line){
+		if (siteCount == siteLines.length){
+			siteLines = Arrays.copyOf(siteLines, siteLines.length * 2);
+		}
+
+		siteLines[siteCount] = line;
+		return siteCount++;
+	}
+
+	//line of the instruction at the given offset
+	int getLine(int offset){
+		int line = 0;
+		for (int i = 0; i < lineCount; i += 2){
+			if (lines[i] > offset) break;
+			line = lines[i + 1];
+		}
+
+		return line;
+	}
+
+	//trim the arrays once compilation is done so the chunk doesn't hold on to slack
+	//maxStack is the deepest the compiler worked out the value stack gets
+	public void seal(int maxStack){
+		this.maxStack = maxStack;
+		code = Arrays.copyOf(code, count);
+		constants = Arrays.copyOf(constants, constantCount);
+		lines = Arrays.copyOf(lines, lineCount);
+		siteLines = Arrays.copyOf(siteLines, siteCount);
+	}
+}
@@ -0,0 +1,49 @@
+package com.beacodeart.lox.vm;
+
+/*
+ * OpCode
+ *
+ * the instruction set of the virtual machine
+ * each instruction is a single byte, some are followed by a two byte operand
+ * plain byte constants rather than an enum so the vm can switch on the raw byte from the chunk
+ */
+public final class OpCode {
+	//push constant, operand is an index into the constant pool
+	public static final byte CONSTANT = 0;
+	public static final byte NIL = 1;
+	public static final byte TRUE = 2;
+	public static final byte FALSE = 3;
+	//discard the top of the stack
+	public static final byte POP = 4;
+
+	//locals live on the stack, operand is the stack slot
+	public static final byte GET_LOCAL = 5;
+	public static final byte SET_LOCAL = 6;
+	//globals are looked up by name, operand is the constant holding the name
+	public static final byte GET_GLOBAL = 7;
+	public static final byte DEFINE_GLOBAL = 8;
+	public static final byte SET_GLOBAL = 9;
+
+	public static final byte EQUAL = 10;
+	public static final byte NOT_EQUAL = 11;
+	public static final byte GREATER = 12;
+	public static final byte GREATER_EQUAL = 13;
+	public static final byte LESS = 14;
+	public static final byte LESS_EQUAL = 15;
+	public static final byte ADD = 16;
+	public static final byte SUBTRACT = 17;
+	public static final byte MULTIPLY = 18;
+	public static final byte DIVIDE = 19;
+	public static final byte NOT = 20;
+	public static final byte NEGATE = 21;
+
+	public static final byte PRINT = 22;
+	//pop a number of locals at the end of a block, operand is the count
+	public static final byte POPN = 23;
+	public static final byte RETURN = 24;
+	//call the value under the arguments, operands are the argument count and the call site index
+	//the callee and arguments are replaced by the result
+	public static final byte CALL = 25;
+
+	private OpCode() {}
+}
@@ -0,0 +1,213 @@
+package com.beacodeart.lox.vm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.beacodeart.lox.Errors;
+import com.beacodeart.lox.NativeFunction;
+import com.beacodeart.lox.Natives;
+import com.beacodeart.lox.OutputSink;
+import com.beacodeart.lox.Rope;
+import com.beacodeart.lox.Values;
+
+/*
+ * VM
+ *
+ * stack based virtual machine that runs a chunk produced by the Compiler
+ * one big switch over the opcode byte instead of a visitor call per node
+ * globals survive between calls to interpret so the repl behaves like the tree walker
+ * runtime errors use the same messages as Interpreter and take their line from the chunk's line table
+ */
+public class VM {
+	private final Map<String, Object> globals = new HashMap<>();
+	//where print goes
+	private final OutputSink output;
+
+	public VM(OutputSink output){
+		this.output = output;
+		for (NativeFunction function : Natives.all()){
+			globals.put(function.name, function);
+		}
+	}
+
+	//runs the chunk, a runtime error is thrown out to the caller to report
+	public void interpret(Chunk chunk){
+		byte[] code = chunk.code;
+		Object[] constants = chunk.constants;
+		Object[] stack = new Object[chunk.maxStack];
+		//the function each call site last checked the arity of
+		NativeFunction[] checked = new NativeFunction[chunk.siteCount];
+		int sp = 0;
+		int ip = 0;
+
+		for (;;) {
+			byte op = code[ip++];
+			switch (op) {
+				case OpCode.CONSTANT:
+					stack[sp++] = constants[readShort(code, ip)];
+					ip += 2;
+					break;
+				case OpCode.NIL: stack[sp++] = null; break;
+				case OpCode.TRUE: stack[sp++] = true; break;
+				case OpCode.FALSE: stack[sp++] = false; break;
+				case OpCode.POP: sp--; break;
+				case OpCode.POPN:
+					sp -= readShort(code, ip);
+					ip += 2;
+					break;
+
+				case OpCode.GET_LOCAL:
+					stack[sp++] = stack[readShort(code, ip)];
+					ip += 2;
+					break;
+				case OpCode.SET_LOCAL:
+					//assignment is an expression, so the value stays on the stack
+					stack[readShort(code, ip)] = stack[sp - 1];
+					ip += 2;
+					break;
+				case OpCode.GET_GLOBAL: {
+					String name = (String)constants[readShort(code, ip)];
+					if (!globals.containsKey(name)){
+						throw error(chunk, ip - 1, "undefined variable " + name + ".");
+					}
+					stack[sp++] = globals.get(name);
+					ip += 2;
+					break;
+				}
+				case OpCode.DEFINE_GLOBAL:
+					globals.put((String)constants[readShort(code, ip)], stack[--sp]);
+					ip += 2;
+					break;
+				case OpCode.SET_GLOBAL: {
+					String name = (String)constants[readShort(code, ip)];
+					if (!globals.containsKey(name)){
+						throw error(chunk, ip - 1, "Undefined variable '" + name + "'.");
+					}
+					globals.put(name, stack[sp - 1]);
+					ip += 2;
+					break;
+				}
+
+				case OpCode.EQUAL: {
+					Object right = stack[--sp];
+					stack[sp - 1] = Values.isEqual(stack[sp - 1], right);
+					break;
+				}
+				case OpCode.NOT_EQUAL: {
+					Object right = stack[--sp];
+					stack[sp - 1] = !Values.isEqual(stack[sp - 1], right);
+					break;
+				}
+				case OpCode.GREATER:
+					checkNumberOperands(chunk, ip - 1, stack[sp - 2], stack[sp - 1]);
+					sp--;
+					stack[sp - 1] = (double)stack[sp - 1] > (double)stack[sp];
+					break;
+				case OpCode.GREATER_EQUAL:
+					checkNumberOperands(chunk, ip - 1, stack[sp - 2], stack[sp - 1]);
+					sp--;
+					stack[sp - 1] = (double)stack[sp - 1] >= (double)stack[sp];
+					break;
+				case OpCode.LESS:
+					checkNumberOperands(chunk, ip - 1, stack[sp - 2], stack[sp - 1]);
+					sp--;
+					stack[sp - 1] = (double)stack[sp - 1] < (double)stack[sp];
+					break;
+				case OpCode.LESS_EQUAL:
+					checkNumberOperands(chunk, ip - 1, stack[sp - 2], stack[sp - 1]);
+					sp--;
+					stack[sp - 1] = (double)stack[sp - 1] <= (double)stack[sp];
+					break;
+				case OpCode.ADD: {
+					Object right = stack[--sp];
+					Object left = stack[sp - 1];
+					if (left instanceof Double && right instanceof Double){
+						stack[sp - 1] = (double)left + (double)right;
+					} else if (left instanceof CharSequence && right instanceof CharSequence){
+						stack[sp - 1] = Rope.concat((CharSequence)left, (CharSequence)right);
+					} else {
+						throw error(chunk, ip - 1, "Operands must be two numbers or two strings.");
+					}
+					break;
+				}
+				case OpCode.SUBTRACT:
+					checkNumberOperands(chunk, ip - 1, stack[sp - 2], stack[sp - 1]);
+					sp--;
+					stack[sp - 1] = (double)stack[sp - 1] - (double)stack[sp];
+					break;
+				case OpCode.MULTIPLY:
+					checkNumberOperands(chunk, ip - 1, stack[sp - 2], stack[sp - 1]);
+					sp--;
+					stack[sp - 1] = (double)stack[sp - 1] * (double)stack[sp];
+					break;
+				case OpCode.DIVIDE:
+					checkNumberOperands(chunk, ip - 1, stack[sp - 2], stack[sp - 1]);
+					sp--;
+					stack[sp - 1] = (double)stack[sp - 1] / (double)stack[sp];
+					break;
+				case OpCode.NOT:
+					stack[sp - 1] = !Values.isTruthy(stack[sp - 1]);
+					break;
+				case OpCode.NEGATE:
+					if (!(stack[sp - 1] instanceof Double)){
+						throw error(chunk, ip - 1, "Operand must be a number.");
+					}
+					stack[sp - 1] = -(double)stack[sp - 1];
+					break;
+
+				case OpCode.CALL: {
+					int count = readShort(code, ip);
+					int site = readShort(code, ip + 2);
+					ip += 4;
+					int line = chunk.siteLines[site];
+					int base = sp - count - 1;
+
+					NativeFunction function = checked[site];
+					if (function == null || stack[base] != function){
+						function = NativeFunction.check(stack[base], count, line);
+						checked[site] = function;
+					}
+
+					//arguments are read straight off the stack
+					Object result;
+					switch (count) {
+						case 0: result = function.call(line); break;
+						case 1: result = function.call(line, stack[base + 1]); break;
+						case 2: result = function.call(line, stack[base + 1], stack[base + 2]); break;
+						case 3: result = function.call(line, stack[base + 1], stack[base + 2], stack[base + 3]); break;
+						default: result = function.call(line, Arrays.copyOfRange(stack, base + 1, sp));
+					}
+
+					stack[base] = result;
+					sp = base + 1;
+					break;
+				}
+
+				case OpCode.PRINT:
+					output.println(Values.stringify(stack[--sp]));
+					break;
+				case OpCode.RETURN:
+					return;
+				default:
+					throw new IllegalStateException("Unknown opcode " + op);
+			}
+		}
+	}
+
+	//helper methods, these mirror the ones in Interpreter so both engines agree
+	//
+	private static int readShort(byte[] code, int ip){
+		return ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+	}
+
+	private static RuntimeException error(Chunk chunk, int offset, String message){
+		return Errors.runtime(chunk.getLine(offset), message);
+	}
+
+	private static void checkNumberOperands(Chunk chunk, int offset, Object left, Object right){
+		if (left instanceof Double && right instanceof Double) return;
+
+		throw error(chunk, offset, "Operands must be numbers.");
+	}
+}
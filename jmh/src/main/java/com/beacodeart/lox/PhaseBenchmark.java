@@ -0,0 +1,167 @@
+package com.beacodeart.lox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * PhaseBenchmark
+ *
+ * the same phases and inputs as LoxBenchmark, run by JMH so forking, warmup, dead code and the
+ * allocation numbers are taken care of by the harness. run with -prof gc for bytes allocated per op
+ * (gc.alloc.rate.norm) and the collections each benchmark caused, which the hand written harness
+ * can't see
+ *
+ *   cd jmh && mvn -B package
+ *   java -jar target/benchmarks.jar -prof gc [benchmark regex] [-p input=arithmetic,strings]
+ *
+ * every method returns what it produced, JMH sinks it so the jit can't throw the work away
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhaseBenchmark {
+	@Param({"arithmetic", "expressions", "nested", "strings", "strings-long", "globals", "calls", "identifiers", "numbers"})
+	String input;
+
+	//each phase gets the output of the previous phase prepared up front, like LoxBenchmark.benchmarks
+	private String source;
+	private List<Token> tokens;
+	private TokenBuffer compactTokens;
+	private ByteBuffer bytes;
+	private List<Stmt> statements;
+	private List<Stmt> resolved;
+	private Interpreter interpreter;
+	private SpecializingInterpreter specializingInterpreter;
+	private StackInterpreter stackInterpreter;
+	private ClosureInterpreter closureInterpreter;
+	private ClosureInterpreter.Execution[] translated;
+	private FlatInterpreter flatInterpreter;
+	private FlatTree flat;
+
+	@Setup(Level.Trial)
+	public void setUp(){
+		source = LoxBenchmark.inputs().get(input);
+		if (source == null) throw new IllegalArgumentException("No input named " + input);
+
+		//print statements would swamp the results
+		OutputSink discard = new OutputSink.Console(new PrintStream(OutputStream.nullOutputStream()));
+		Lox.useOutput(discard);
+
+		tokens = new Scanner(source).scanTokens();
+		compactTokens = new Scanner(source).scanCompact();
+		//off heap like a mapped file, without depending on the page cache
+		byte[] encoded = source.getBytes(StandardCharsets.UTF_8);
+		bytes = ByteBuffer.allocateDirect(encoded.length).put(encoded);
+		bytes.flip();
+		statements = new Parser(tokens).parse();
+		resolved = new Optimizer().optimize(statements);
+		new Resolver().resolve(resolved);
+		interpreter = new Interpreter(discard);
+		specializingInterpreter = new SpecializingInterpreter(discard);
+		stackInterpreter = new StackInterpreter(discard);
+		closureInterpreter = new ClosureInterpreter(discard);
+		translated = closureInterpreter.translate(resolved);
+		flatInterpreter = new FlatInterpreter(discard);
+		flat = FlatTree.encode(resolved);
+	}
+
+	@Benchmark
+	public Object scan(){
+		return new Scanner(source).scanTokens();
+	}
+
+	@Benchmark
+	public Object scanCompact(){
+		return new Scanner(source).scanCompact();
+	}
+
+	@Benchmark
+	public Object scanBytes(){
+		return new ByteScanner(bytes).scanCompact();
+	}
+
+	@Benchmark
+	public Object parse(){
+		return new Parser(tokens).parse();
+	}
+
+	@Benchmark
+	public Object parseCompact(){
+		return new Parser(compactTokens).parse();
+	}
+
+	@Benchmark
+	public Object parseStack(){
+		return new Parser(compactTokens).useExplicitStacks().parse();
+	}
+
+	@Benchmark
+	public Object interpret(){
+		interpreter.interpret(resolved);
+		return interpreter;
+	}
+
+	//the same statements every time, after the first op the nodes have already specialized
+	@Benchmark
+	public Object interpretSpecialize(){
+		specializingInterpreter.interpret(resolved);
+		return specializingInterpreter;
+	}
+
+	//straight from the parser, --stack neither folds nor resolves
+	@Benchmark
+	public Object interpretStack(){
+		stackInterpreter.interpret(statements);
+		return stackInterpreter;
+	}
+
+	//translating is part of every closure run, executeClosure shows what running alone costs
+	@Benchmark
+	public Object interpretClosure(){
+		closureInterpreter.interpret(resolved);
+		return closureInterpreter;
+	}
+
+	@Benchmark
+	public Object executeClosure(){
+		closureInterpreter.run(translated);
+		return closureInterpreter;
+	}
+
+	@Benchmark
+	public Object encodeFlat(){
+		return FlatTree.encode(resolved);
+	}
+
+	@Benchmark
+	public Object interpretFlat(){
+		flatInterpreter.interpret(flat);
+		return flatInterpreter;
+	}
+
+	@Benchmark
+	public Object run(){
+		Lox.run(source);
+		return source;
+	}
+}